@@ -0,0 +1,211 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.DescriptorExtensionList;
+import hudson.Plugin;
+import hudson.model.BallColor;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.TopLevelItem;
+import hudson.views.ListViewColumn;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import jenkins.model.Jenkins;
+
+import org.easymock.EasyMock;
+
+/**
+ * Synthetic jobs and views for the benchmarks, without a running Jenkins.
+ *
+ * Builds are EasyMock nice mocks, so their getters cost a proxy call each; compare numbers between runs of the
+ * same fixture only.
+ */
+final class XFPanelBenchmarkFixture {
+
+	/**
+	 * Results of the last finished builds, cycled through the jobs.
+	 */
+	private static final Result[] RESULTS = {Result.SUCCESS, Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.ABORTED};
+
+	/**
+	 * Sort modes of {@link XFPanelView#getPrioritySortedJobs(java.util.Collection, boolean)}.
+	 */
+	static final String ALPHABETICAL = "alphabetical";
+	static final String MANUAL = "manual";
+	static final String AUTOMATIC = "automatic";
+
+	private XFPanelBenchmarkFixture() {
+	}
+
+	/**
+	 * Installs a mocked Jenkins, with the claim plugin.
+	 * @return the mocked instance
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	static Jenkins mockJenkins() throws Exception {
+		Jenkins jenkins = EasyMock.createNiceMock(Hudson.class);
+		Field field = Jenkins.class.getDeclaredField("theInstance");
+		field.setAccessible(true);
+		field.set(null, jenkins);
+		EasyMock.expect(jenkins.getNodes()).andReturn(new ArrayList<Node>()).anyTimes();
+		EasyMock.expect(jenkins.getFullName()).andReturn("").anyTimes();
+		EasyMock.expect(jenkins.getPlugin("claim")).andReturn(EasyMock.createNiceMock(Plugin.class)).anyTimes();
+		DescriptorExtensionList columns = EasyMock.createNiceMock(DescriptorExtensionList.class);
+		EasyMock.expect(columns.iterator()).andReturn(Collections.emptyList().iterator()).anyTimes();
+		EasyMock.expect(columns.toArray()).andReturn(new Object[0]).anyTimes();
+		EasyMock.expect(jenkins.getDescriptorList(ListViewColumn.class)).andReturn(columns).anyTimes();
+		EasyMock.replay(jenkins, columns);
+		return jenkins;
+	}
+
+	/**
+	 * @param jenkins the parent of the jobs
+	 * @param count number of jobs
+	 * @return jobs in no particular order, with mixed results, some of them building
+	 */
+	static List<TopLevelItem> createJobs(Jenkins jenkins, int count) {
+		List<TopLevelItem> jobs = new ArrayList<TopLevelItem>(count);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			// names interleave cases and aren't created in order, like the jobs of a real instance
+			int n = (int) ((i * 7919L) % count);
+			String name = ((n % 2 == 0) ? "job-" : "Job-") + n;
+			Result result = RESULTS[n % RESULTS.length];
+			boolean building = n % 7 == 0;
+			FreeStyleBuild finished = build(40 + n % 60, result, false, now - n * 60000L, null);
+			FreeStyleBuild last = building ? build(finished.getNumber() + 1, null, true, now, finished) : finished;
+			jobs.add(new Project(jenkins, name, last, finished));
+		}
+		return jobs;
+	}
+
+	private static FreeStyleBuild build(int number, Result result, boolean building, long time, FreeStyleBuild previous) {
+		FreeStyleBuild build = EasyMock.createNiceMock(FreeStyleBuild.class);
+		Calendar timestamp = Calendar.getInstance();
+		timestamp.setTimeInMillis(time);
+		EasyMock.expect(build.getNumber()).andReturn(number).anyTimes();
+		EasyMock.expect(build.getResult()).andReturn(result).anyTimes();
+		EasyMock.expect(build.isBuilding()).andReturn(building).anyTimes();
+		EasyMock.expect(build.getTimestamp()).andReturn(timestamp).anyTimes();
+		EasyMock.expect(build.getTimeInMillis()).andReturn(time).anyTimes();
+		EasyMock.expect(build.getDuration()).andReturn(building ? 0L : 30000L).anyTimes();
+		EasyMock.expect(build.getPreviousBuild()).andReturn(previous).anyTimes();
+		EasyMock.replay(build);
+		return build;
+	}
+
+	/**
+	 * @param items the jobs of the view
+	 * @param sortMode one of {@link #ALPHABETICAL}, {@link #MANUAL} or {@link #AUTOMATIC}
+	 * @return a view of the given jobs
+	 */
+	static XFPanelView createView(List<TopLevelItem> items, String sortMode) throws Exception {
+		XFPanelView view = new View(items);
+		set(view, "enableAutomaticSort", AUTOMATIC.equals(sortMode));
+		set(view, "manualSort", MANUAL.equals(sortMode));
+		if (MANUAL.equals(sortMode)) {
+			// reverse creation order, so that the manual order differs from the alphabetical one
+			List<String> order = new ArrayList<String>();
+			for (int i = items.size() - 1; i >= 0; i--) {
+				order.add(items.get(i).getName());
+			}
+			set(view, "jobOrder", order);
+		}
+		return view;
+	}
+
+	/**
+	 * Sets a private field of the view, as the configuration page would.
+	 */
+	static void set(XFPanelView view, String name, Object value) throws Exception {
+		Field field = XFPanelView.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(view, value);
+	}
+
+	/**
+	 * A job with fixed builds.
+	 */
+	private static final class Project extends FreeStyleProject {
+
+		private final FreeStyleBuild last;
+		private final FreeStyleBuild finished;
+
+		Project(Jenkins parent, String name, FreeStyleBuild last, FreeStyleBuild finished) {
+			super(parent, name);
+			this.last = last;
+			this.finished = finished;
+		}
+
+		@Override
+		public BallColor getIconColor() {
+			BallColor color;
+			Result result = this.finished.getResult();
+			if (result == Result.SUCCESS) {
+				color = BallColor.BLUE;
+			} else if (result == Result.UNSTABLE) {
+				color = BallColor.YELLOW;
+			} else if (result == Result.FAILURE) {
+				color = BallColor.RED;
+			} else {
+				color = BallColor.ABORTED;
+			}
+			return this.last.isBuilding() ? color.anime() : color;
+		}
+
+		@Override
+		public FreeStyleBuild getLastBuild() {
+			return this.last;
+		}
+
+		@Override
+		public FreeStyleBuild getLastCompletedBuild() {
+			return this.finished;
+		}
+
+		@Override
+		public FreeStyleBuild getLastSuccessfulBuild() {
+			return this.finished.getResult() == Result.SUCCESS ? this.finished : null;
+		}
+
+		@Override
+		public FreeStyleBuild getLastStableBuild() {
+			return getLastSuccessfulBuild();
+		}
+
+		@Override
+		public FreeStyleBuild getLastFailedBuild() {
+			return this.finished.getResult() == Result.FAILURE ? this.finished : null;
+		}
+
+		@Override
+		public FreeStyleBuild getFirstBuild() {
+			return this.finished;
+		}
+	}
+
+	/**
+	 * A view that holds its jobs itself.
+	 */
+	private static final class View extends XFPanelView {
+
+		private final List<TopLevelItem> items;
+
+		View(List<TopLevelItem> items) {
+			super("benchmark", 2);
+			this.items = items;
+		}
+
+		@Override
+		public List<TopLevelItem> getItems() {
+			return this.items;
+		}
+	}
+}
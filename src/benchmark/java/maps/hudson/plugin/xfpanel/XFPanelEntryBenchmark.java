@@ -0,0 +1,109 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Job;
+import hudson.model.TopLevelItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building the entries of a view: {@link XFPanelEntry#init()}, which determines the status of a job and collects
+ * its data, and the getters the templates call for every tile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XFPanelEntryBenchmark {
+
+	@Param({"10", "1000", "20000"})
+	int jobs;
+
+	private XFPanelView view;
+	private List<Job<?, ?>> selected;
+	private List<XFPanelEntry> entries;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		Jenkins jenkins = XFPanelBenchmarkFixture.mockJenkins();
+		List<TopLevelItem> items = XFPanelBenchmarkFixture.createJobs(jenkins, this.jobs);
+		this.view = XFPanelBenchmarkFixture.createView(items, XFPanelBenchmarkFixture.AUTOMATIC);
+		XFPanelBenchmarkFixture.set(this.view, "jobNameReplaceRegExp", "^(job|Job)-");
+		XFPanelBenchmarkFixture.set(this.view, "jobNameReplacement", "");
+		this.selected = new ArrayList<Job<?, ?>>();
+		this.entries = new ArrayList<XFPanelEntry>();
+		for (TopLevelItem item : items) {
+			Job<?, ?> job = (Job<?, ?>) item;
+			this.selected.add(job);
+			XFPanelEntry entry = new XFPanelEntry(this.view, job);
+			entry.init();
+			this.entries.add(entry);
+		}
+	}
+
+	@Benchmark
+	public void init(Blackhole blackhole) {
+		for (Job<?, ?> job : this.selected) {
+			XFPanelEntry entry = new XFPanelEntry(this.view, job);
+			entry.init();
+			blackhole.consume(entry);
+		}
+	}
+
+	@Benchmark
+	public void getName(Blackhole blackhole) {
+		for (XFPanelEntry entry : this.entries) {
+			blackhole.consume(entry.getName());
+		}
+	}
+
+	/**
+	 * The claim and test count getters of a tile, as job.jelly calls them.
+	 */
+	@Benchmark
+	public void claimAndTestCounts(Blackhole blackhole) {
+		for (XFPanelEntry entry : this.entries) {
+			blackhole.consume(entry.isClaimed());
+			blackhole.consume(entry.getClaimInfo());
+			blackhole.consume(entry.getClaimInfoByTestCases());
+			blackhole.consume(entry.getNumberOfTests());
+			blackhole.consume(entry.getTestCount());
+			blackhole.consume(entry.getFailCount());
+			blackhole.consume(entry.getSuccessCount());
+			blackhole.consume(entry.getSuccessPercentage());
+		}
+	}
+
+	/**
+	 * As {@link #claimAndTestCounts}, for entries that weren't initialized, so the first getter collects the data.
+	 */
+	@Benchmark
+	public void claimAndTestCountsUninitialized(Blackhole blackhole) {
+		for (Job<?, ?> job : this.selected) {
+			XFPanelEntry entry = new XFPanelEntry(this.view, job);
+			blackhole.consume(entry.isClaimed());
+			blackhole.consume(entry.getClaimInfoByTestCases());
+			blackhole.consume(entry.getNumberOfTests());
+			blackhole.consume(entry.getFailCount());
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.TopLevelItem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.model.Jenkins;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sorting the jobs of a view: {@link XFPanelView#sort}, its comparators and
+ * {@link XFPanelView#getPrioritySortedJobs(Collection, boolean)} in each sort mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XFPanelViewBenchmark {
+
+	@Param({"10", "1000", "20000"})
+	int jobs;
+
+	@Param({XFPanelBenchmarkFixture.ALPHABETICAL, XFPanelBenchmarkFixture.MANUAL, XFPanelBenchmarkFixture.AUTOMATIC})
+	String sortMode;
+
+	private XFPanelView view;
+	private Collection<Job<?, ?>> selected;
+	private List<XFPanelEntry> entries;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		Jenkins jenkins = XFPanelBenchmarkFixture.mockJenkins();
+		List<TopLevelItem> items = XFPanelBenchmarkFixture.createJobs(jenkins, this.jobs);
+		this.view = XFPanelBenchmarkFixture.createView(items, this.sortMode);
+		this.selected = new ArrayList<Job<?, ?>>();
+		for (TopLevelItem item : items) {
+			this.selected.add((Job<?, ?>) item);
+		}
+		this.entries = new ArrayList<XFPanelEntry>();
+		for (Job<?, ?> job : this.selected) {
+			XFPanelEntry entry = new XFPanelEntry(this.view, job);
+			entry.init();
+			this.entries.add(entry);
+		}
+	}
+
+	/**
+	 * The panel after any change: the snapshot is rebuilt, every entry initialized and sorted.
+	 */
+	@Benchmark
+	public Collection<XFPanelEntry> sort() {
+		XFPanelChangeTracker.changed();
+		return this.view.sort(this.selected);
+	}
+
+	/**
+	 * The panel when nothing changed since the last request.
+	 */
+	@Benchmark
+	public Collection<XFPanelEntry> sortUnchanged() {
+		return this.view.sort(this.selected);
+	}
+
+	@Benchmark
+	public Collection<Job<?, ?>> prioritySortedJobs() {
+		return this.view.getPrioritySortedJobs(this.selected, false);
+	}
+
+	/**
+	 * As on the configuration page, where selected jobs come first.
+	 */
+	@Benchmark
+	public Collection<Job<?, ?>> prioritySortedJobsConfiguration() {
+		return this.view.getPrioritySortedJobs(this.selected, true);
+	}
+
+	@Benchmark
+	public List<XFPanelEntry> selectComparator() {
+		List<XFPanelEntry> sorted = new ArrayList<XFPanelEntry>(this.entries);
+		Collections.sort(sorted, new XFPanelView.selectComparator());
+		return sorted;
+	}
+
+	/**
+	 * Compares each entry with the next one, for the cost of a single comparison.
+	 */
+	@Benchmark
+	public int selectComparatorCompare() {
+		return compareNeighbours(new XFPanelView.selectComparator());
+	}
+
+	/**
+	 * The comparator {@link XFPanelView.selectComparator} replaced, which looked up builds on every comparison.
+	 * It isn't consistent, so it can't be benchmarked by sorting: sorts may reject it.
+	 */
+	@Benchmark
+	public int legacyComparatorCompare() {
+		return compareNeighbours(new LegacyComparator());
+	}
+
+	private int compareNeighbours(Comparator<XFPanelEntry> comparator) {
+		int sum = 0;
+		for (int i = 1; i < this.entries.size(); i++) {
+			sum += comparator.compare(this.entries.get(i - 1), this.entries.get(i));
+		}
+		return sum;
+	}
+
+	/**
+	 * {@link XFPanelView.selectComparator} before entries had a sort key.
+	 */
+	static final class LegacyComparator implements Comparator<XFPanelEntry> {
+
+		private int getPriority(AbstractBuild<?, ?> build) {
+			// never built build
+			if (build == null) {
+				return 1;
+			}
+
+			if (build.isBuilding()) {
+				build = build.getPreviousBuild();
+				return getPriority(build);
+			}
+
+			Result result = build.getResult();
+			if (result != null) {
+				// priority order: the least important -> the most important
+				Result allResults[] = { Result.SUCCESS, Result.ABORTED, Result.NOT_BUILT, Result.UNSTABLE, Result.FAILURE };
+				int resultValues[]  = {       0,              1,              1,                2,               3        };
+				for (int i=0; i < allResults.length; i++) {
+					if (result == allResults[i] ){
+						return resultValues[i];
+					}
+				}
+			}
+			return 1;
+		}
+
+		public int compare(XFPanelEntry a, XFPanelEntry b) {
+			AbstractBuild<?, ?> buildA = a.getLastBuild();
+			AbstractBuild<?, ?> buildB = b.getLastBuild();
+			int result = getPriority(buildB) - getPriority(buildA);
+
+			// if build results are same and builds exists-> sort by build timestamp
+			if (result == 0 ){
+
+				// if build is null, show it on bottom of its class
+				if ( buildA == null || buildB == null ){
+					return  ( buildA == null ) ? 1 : 0;
+				}
+
+				// if building atm -> show build on top of its class
+				if ( buildA.isBuilding() || buildB.isBuilding() ){
+					return ( buildA.isBuilding() ) ? 0 : 1;
+				}
+				return b.getCompletionTimestamp().compareTo(a.getCompletionTimestamp());
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Action;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of anything that may change what a panel shows.
+ *
+ * Build, queue and item events bump a global generation counter. A view remembers the generation its
+ * {@link XFPanelSnapshot} was built from, and only rebuilds the snapshot once the counter has moved on.
+ */
+public final class XFPanelChangeTracker {
+
+    private static final AtomicLong generation = new AtomicLong();
+    private static final Object monitor = new Object();
+
+    private XFPanelChangeTracker() {
+    }
+
+    /**
+     * @return the current generation
+     */
+    public static long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Marks every panel snapshot as dirty.
+     */
+    static void changed() {
+        generation.incrementAndGet();
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until the generation moves past the given one, or the timeout expires.
+     *
+     * @param since the last generation the caller has seen
+     * @param timeout maximum time to wait, in milliseconds
+     * @return the current generation, which equals <code>since</code> on timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static long awaitChange(long since, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (monitor) {
+            long current = generation.get();
+            while (current == since) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                monitor.wait(remaining);
+                current = generation.get();
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Builds starting, finishing or disappearing.
+     */
+    @Extension
+    public static final class RunChangeListener extends RunListener<Run<?, ?>> {
+        @Override
+        public void onStarted(Run<?, ?> r, TaskListener listener) {
+            XFPanelQueueIndex.left(r.getParent().getFullName());
+            changed();
+        }
+
+        @Override
+        public void onCompleted(Run<?, ?> r, TaskListener listener) {
+            changed();
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> r) {
+            changed();
+        }
+    }
+
+    /**
+     * Builds being saved, which is how claims and descriptions of finished builds get changed.
+     */
+    @Extension
+    public static final class RunSaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run<?, ?>) {
+                changed();
+            }
+        }
+    }
+
+    /**
+     * Jobs being created, renamed, reconfigured or deleted.
+     */
+    @Extension
+    public static final class ItemChangeListener extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            changed();
+        }
+
+        @Override
+        public void onRenamed(Item item, String oldName, String newName) {
+            changed();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            changed();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            changed();
+        }
+    }
+
+    /**
+     * Tasks about to enter the queue. They aren't in it yet, so the generation is only moved on once
+     * {@link XFPanelQueueIndex} finds them there. Tasks leaving it are covered by {@link RunChangeListener#onStarted}.
+     */
+    @Extension
+    public static final class QueueChangeListener extends Queue.QueueDecisionHandler {
+        @Override
+        public boolean shouldSchedule(Queue.Task p, List<Action> actions) {
+            XFPanelQueueIndex.scheduled(p);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.plugins.claim.ClaimTestAction;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.TestResult;
+import hudson.tasks.junit.TestResultAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Summary of the test claims of recently displayed builds, keyed by job and build number.
+ *
+ * Summarizing means loading the test report and visiting every failed test, so it is done once per build
+ * and kept until the build is saved again (which is how claims get stored) or deleted. The least recently
+ * used summaries are dropped beyond {@link #SIZE} builds.
+ */
+final class XFPanelClaimIndex {
+
+    /**
+     * Maximum number of builds to keep summaries for.
+     */
+    static final int SIZE = 1000;
+
+    private static final Map<String, Summary> summaries = new LinkedHashMap<String, Summary>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Summary> eldest) {
+            return size() > SIZE;
+        }
+    };
+
+    /**
+     * Bumped on every eviction, so that a summary computed while its build changed is not stored.
+     */
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private XFPanelClaimIndex() {
+    }
+
+    /**
+     * @param job the job of the build
+     * @param run a finished build
+     * @return the claim summary of the build
+     */
+    static Summary get(Job<?, ?> job, Run<?, ?> run) {
+        String key = key(job, run);
+        synchronized (summaries) {
+            Summary summary = summaries.get(key);
+            if (summary != null) {
+                return summary;
+            }
+        }
+        long before = evictions.get();
+        Summary summary = Summary.of(run);
+        synchronized (summaries) {
+            if (evictions.get() == before) {
+                summaries.put(key, summary);
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Forgets the summary of the given build.
+     * @param run a build
+     */
+    static void evict(Run<?, ?> run) {
+        evictions.incrementAndGet();
+        synchronized (summaries) {
+            summaries.remove(key(run.getParent(), run));
+        }
+    }
+
+    /**
+     * Forgets all summaries.
+     */
+    static void clear() {
+        evictions.incrementAndGet();
+        synchronized (summaries) {
+            summaries.clear();
+        }
+    }
+
+    private static String key(Job<?, ?> job, Run<?, ?> run) {
+        return (job != null ? job.getFullName() : null) + "#" + run.getNumber();
+    }
+
+    /**
+     * Test claims of a single build.
+     */
+    static final class Summary {
+
+        static final Summary NO_TESTS = new Summary(-1, Collections.<String>emptyList());
+
+        private final int claimed;
+        private final List<String> claimers;
+
+        private Summary(int claimed, List<String> claimers) {
+            this.claimed = claimed;
+            this.claimers = claimers;
+        }
+
+        /**
+         * Visits the failed tests of the given build once.
+         */
+        static Summary of(Run<?, ?> run) {
+            List<TestResultAction> results = run.getActions(TestResultAction.class);
+            if (results == null || results.size() == 0) {
+                return NO_TESTS;
+            }
+            TestResult testResult = results.get(0).getResult();
+            if (testResult == null) {
+                return NO_TESTS;
+            }
+            int claimed = 0;
+            Set<String> claimers = new LinkedHashSet<String>();
+            for (CaseResult result : testResult.getFailedTests()) {
+                ClaimTestAction claimTestAction = result.getTestAction(ClaimTestAction.class);
+                if (claimTestAction != null && claimTestAction.isClaimed()) {
+                    claimed++;
+                    String claimer = claimTestAction.getClaimedBy();
+                    if (claimer != null && claimer.length() > 0) {
+                        claimers.add(claimer);
+                    }
+                }
+            }
+            return new Summary(claimed, Collections.unmodifiableList(new ArrayList<String>(claimers)));
+        }
+
+        /**
+         * @return number of claimed failed tests, -1 if the build has no test report
+         */
+        int getClaimed() {
+            return this.claimed;
+        }
+
+        /**
+         * @return distinct names of the users who claimed failed tests
+         */
+        List<String> getClaimers() {
+            return this.claimers;
+        }
+    }
+
+    /**
+     * Claims are stored by saving the build they were made on.
+     */
+    @Extension
+    public static final class ClaimSaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run<?, ?>) {
+                evict((Run<?, ?>) o);
+            }
+        }
+    }
+
+    /**
+     * Drops the summaries of deleted builds.
+     */
+    @Extension
+    public static final class ClaimRunListener extends RunListener<Run<?, ?>> {
+        @Override
+        public void onDeleted(Run<?, ?> r) {
+            evict(r);
+        }
+    }
+}
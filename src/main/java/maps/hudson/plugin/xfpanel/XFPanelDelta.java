@@ -0,0 +1,129 @@
+package maps.hudson.plugin.xfpanel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What changed on a panel since a version a client has seen.
+ *
+ * Rendered by <code>delta.jelly</code>: the client keeps its unchanged tiles, replaces the changed ones,
+ * drops the removed ones and puts everything in the given order.
+ */
+public final class XFPanelDelta {
+
+    private final long version;
+    private final boolean full;
+    private final List<String> order;
+    private final List<XFPanelEntry> changed;
+    private final List<String> removed;
+
+    /**
+     * C'tor
+     * @param version the version the client will be at after applying this delta
+     * @param full true if <code>changed</code> holds every visible entry
+     * @param order names of the visible entries, in display order
+     * @param changed entries added or changed since the client's version
+     * @param removed names of the entries no longer visible
+     */
+    XFPanelDelta(long version, boolean full, List<String> order, List<XFPanelEntry> changed, List<String> removed) {
+        this.version = version;
+        this.full = full;
+        this.order = Collections.unmodifiableList(order);
+        this.changed = Collections.unmodifiableList(changed);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * The client drops every tile missing from the order, so names of jobs the user may not see are left out
+     * altogether, removed ones included.
+     *
+     * @param names full names of the jobs the user may see
+     * @return this delta restricted to the given jobs
+     */
+    XFPanelDelta filter(Set<String> names) {
+        List<String> visibleOrder = new ArrayList<String>();
+        for (String name : this.order) {
+            if (names.contains(name)) {
+                visibleOrder.add(name);
+            }
+        }
+        if (visibleOrder.size() == this.order.size() && names.containsAll(this.removed)) {
+            return this;
+        }
+        List<XFPanelEntry> visibleChanged = new ArrayList<XFPanelEntry>();
+        for (XFPanelEntry entry : this.changed) {
+            if (names.contains(entry.getJob().getFullName())) {
+                visibleChanged.add(entry);
+            }
+        }
+        List<String> visibleRemoved = new ArrayList<String>();
+        for (String name : this.removed) {
+            if (names.contains(name)) {
+                visibleRemoved.add(name);
+            }
+        }
+        return new XFPanelDelta(this.version, this.full, visibleOrder, visibleChanged, visibleRemoved);
+    }
+
+    /**
+     * @return the version the client will be at after applying this delta
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return true if no history was available for the client's version, so every entry is sent
+     */
+    public boolean getFull() {
+        return this.full;
+    }
+
+    /**
+     * @return names of the visible entries, in display order
+     */
+    public List<String> getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return the order as a single attribute value; '|' can't be part of a job name
+     */
+    public String getOrderString() {
+        return join(this.order);
+    }
+
+    /**
+     * @return entries added or changed since the client's version
+     */
+    public List<XFPanelEntry> getChanged() {
+        return this.changed;
+    }
+
+    /**
+     * @return names of the entries no longer visible
+     */
+    public List<String> getRemoved() {
+        return this.removed;
+    }
+
+    /**
+     * @return the removed names as a single attribute value
+     */
+    public String getRemovedString() {
+        return join(this.removed);
+    }
+
+    private static String join(List<String> names) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            if (joined.length() > 0) {
+                joined.append('|');
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+}
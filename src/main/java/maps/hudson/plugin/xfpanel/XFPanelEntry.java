@@ -1,32 +1,23 @@
 package maps.hudson.plugin.xfpanel;
 
-import hudson.Functions;
-import hudson.Plugin;
+import hudson.Util;
 import hudson.model.Result;
 import hudson.model.AbstractBuild;
-import hudson.model.Hudson;
+import hudson.model.BallColor;
+import hudson.model.Executor;
 import hudson.model.Job;
 import hudson.model.Run;
 import hudson.model.User;
-import hudson.plugins.claim.ClaimBuildAction;
-import hudson.plugins.claim.ClaimTestAction;
 import hudson.scm.ChangeLogSet.Entry;
-import hudson.tasks.junit.TestResultAction;
-import hudson.tasks.junit.CaseResult;
-import hudson.tasks.test.AbstractTestResultAction;
 
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.regex.Pattern;
 
-import jenkins.model.Jenkins;
-import maps.hudson.plugin.xfpanel.XFPanelView.Blame;
-
 /**
  * Represents a job to be shown on the panel
  * 
@@ -40,11 +31,18 @@ public final class XFPanelEntry {
     private String backgroundColor;
     private String color;
     private String colorFade = "";
+    private String statusClass = "other";
     private Boolean broken;
     private Boolean building = false;
     private String completionTimestampString = "";
     private Calendar completionTimestamp;
+    private String stateKey = "";
+    private long sortKey;
+    private BallColor iconColor;
+    private XFPanelEntryData data;
     private XFPanelView view;
+    private boolean stale;
+    private XFPanelExplain explain;
 
 		/**
      * C'tor
@@ -55,10 +53,255 @@ public final class XFPanelEntry {
         this.job = job;
     }
 
+    /**
+     * @return a copy of this entry, marked as showing an outdated state
+     */
+    XFPanelEntry asStale() {
+        XFPanelEntry copy = new XFPanelEntry(this.view, this.job);
+        copy.backgroundColor = this.backgroundColor;
+        copy.color = this.color;
+        copy.colorFade = this.colorFade;
+        copy.statusClass = this.statusClass;
+        copy.broken = this.broken;
+        copy.building = this.building;
+        copy.completionTimestampString = this.completionTimestampString;
+        copy.completionTimestamp = this.completionTimestamp;
+        copy.stateKey = this.stateKey.endsWith("|stale") ? this.stateKey : this.stateKey + "|stale";
+        copy.sortKey = this.sortKey;
+        copy.iconColor = this.iconColor;
+        copy.data = this.data;
+        copy.stale = true;
+        return copy;
+    }
+
+    /**
+     * @param view the view
+     * @param job a job whose entry is still being collected, and that has no earlier entry to show instead
+     * @return an entry showing the job like one that was never built, marked as stale
+     */
+    static XFPanelEntry pending(XFPanelView view, Job<?, ?> job) {
+        XFPanelEntry entry = new XFPanelEntry(view, job);
+        entry.backgroundColor = view.getColors().getOtherBG();
+        entry.color = view.getColors().getOtherFG();
+        entry.colorFade = "build-fade-other.png";
+        entry.statusClass = "other";
+        entry.broken = false;
+        entry.iconColor = BallColor.GREY;
+        entry.data = new XFPanelEntryData(view);
+        entry.stateKey = job.getFullName() + "|pending";
+        entry.sortKey = sortKey(severity(null), false, false, 0);
+        entry.stale = true;
+        return entry;
+    }
+
+    /**
+     * @return true if collecting this entry took too long, so it shows the state of an earlier panel
+     */
+    public boolean isStale() {
+        return this.stale;
+    }
+
+    /**
+     * Determines the status of the job and collects everything shown for it, see {@link XFPanelEntryData}.
+     */
     public void init() {
+        long start = System.nanoTime();
         this.findStatus();
-        this.setTimes();
+        this.data = new XFPanelEntryData(this);
+        this.completionTimestamp = this.data.completionTimestamp;
+        this.stateKey = this.computeStateKey();
+        this.sortKey = this.computeSortKey();
+        record(XFPanelMetrics.Phase.INIT, start);
 	}
+
+    /**
+     * Records the cost of a phase of this entry in the metrics of its view, or in its explanation if it has one.
+     *
+     * @param phase the phase
+     * @param start when the phase started, as returned by {@link System#nanoTime()}
+     */
+    void record(XFPanelMetrics.Phase phase, long start) {
+        long nanos = System.nanoTime() - start;
+        if (this.explain != null) {
+            this.explain.add(phase.getKey(), nanos);
+            return;
+        }
+        XFPanelMetrics metrics = this.view != null ? this.view.getMetrics() : null;
+        if (metrics != null) {
+            metrics.add(phase, nanos);
+        }
+    }
+
+    /**
+     * Counts a build looked at while collecting this entry, if it is explained.
+     *
+     * @param run a build, may be null
+     * @return the given build
+     */
+    <R extends Run<?, ?>> R touch(R run) {
+        if (this.explain != null && run != null) {
+            this.explain.getRuns().add(run);
+        }
+        return run;
+    }
+
+    /**
+     * @return collects the builds looked at while collecting this entry if it is explained, null otherwise
+     */
+    Collection<Run<?, ?>> getTouchedRuns() {
+        return this.explain != null ? this.explain.getRuns() : null;
+    }
+
+    /**
+     * @param explain collects the costs of this entry instead of the metrics of the view, see {@link XFPanelExplain}
+     */
+    void setExplain(XFPanelExplain explain) {
+        this.explain = explain;
+    }
+
+    /**
+     * @return the data collected for this entry, collecting it now if {@link #init()} was not called
+     */
+    private XFPanelEntryData data() {
+        if (this.data == null) {
+            this.data = new XFPanelEntryData(this);
+        }
+        return this.data;
+    }
+
+    /**
+     * @return a string that changes whenever what this entry shows changes, as of {@link #init()}
+     */
+    public String getStateKey() {
+        return this.stateKey;
+    }
+
+    /**
+     * Unlike {@link #getStateKey()}, this also covers what changes without any event: the time since the
+     * last build and the progress of running builds.
+     *
+     * @return a string that changes whenever the rendered tile changes
+     */
+    public String getDisplayKey() {
+        StringBuilder key = new StringBuilder(this.stateKey);
+        key.append('|').append(this.getCompletionTimestampString());
+        if (Boolean.TRUE.equals(this.building)) {
+            for (Run<?, ?> run : this.getBuildsInProgress()) {
+                Executor executor = run.getExecutor();
+                key.append('|').append(run.getNumber()).append(':').append(executor != null ? executor.getProgress() : -1);
+                if (executor != null && executor.isLikelyStuck()) {
+                    key.append('!');
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    private String computeStateKey() {
+        StringBuilder key = new StringBuilder().append(this.job.getFullName());
+        // the label changes with the display name or description of the job, and with the view's settings
+        key.append('|').append(this.getName());
+        key.append('|').append(this.iconColor);
+        Run<?, ?> run = data().lastRun;
+        key.append('|').append(run != null ? run.getNumber() : 0);
+        key.append('|').append(this.completionTimestamp != null ? this.completionTimestamp.getTimeInMillis() : 0);
+        key.append('|').append(this.getQueueNumber());
+        if (getView().getIsClaimPluginInstalled()) {
+            key.append('|').append(this.isClaimed()).append('|').append(this.getClaimInfoByTestCases());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the key entries are ordered by when automatic sorting is on, as of {@link #init()};
+     *         entries with a higher key come first
+     */
+    public long getSortKey() {
+        return this.sortKey;
+    }
+
+    private long computeSortKey() {
+        AbstractBuild<?, ?> build = data().lastBuild;
+        Result result;
+        if (Boolean.TRUE.equals(getView().getLightweight())) {
+            result = build != null ? getIconResult() : null;
+        } else {
+            Run<?, ?> finished = build;
+            while (finished != null && finished.isBuilding()) {
+                finished = touch(finished.getPreviousBuild());
+            }
+            result = finished != null ? finished.getResult() : null;
+        }
+        return sortKey(severity(result),
+                build != null && build.isBuilding(), build != null,
+                this.completionTimestamp != null ? this.completionTimestamp.getTimeInMillis() : 0);
+    }
+
+    /**
+     * Tells the result of the last finished build without looking at any build, even while the job is building.
+     *
+     * @return the result of the last finished build as shown by the job's icon, null if the icon doesn't show one
+     */
+    Result getIconResult() {
+        BallColor color = this.iconColor != null ? this.iconColor : this.job.getIconColor();
+        if (color == null) {
+            return null;
+        }
+        switch (color.noAnime()) {
+        case BLUE:
+            return Result.SUCCESS;
+        case YELLOW:
+            return Result.UNSTABLE;
+        case RED:
+            return Result.FAILURE;
+        case ABORTED:
+            return Result.ABORTED;
+        case NOTBUILT:
+            return Result.NOT_BUILT;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @param result result of the last finished build, or null
+     * @return how much attention a job with the given result needs, from 0 to 3
+     */
+    static int severity(Result result) {
+        if (result == Result.SUCCESS) {
+            return 0;
+        }
+        if (result == Result.UNSTABLE) {
+            return 2;
+        }
+        if (result == Result.FAILURE) {
+            return 3;
+        }
+        // aborted, not built, or never built
+        return 1;
+    }
+
+    /**
+     * Packs the sort criteria into a single number: severity first, then running builds, then jobs that
+     * were built at all, then the most recent completion.
+     *
+     * @param severity the {@link #severity(Result)} of the last finished build
+     * @param building true if a build is running
+     * @param built true if the job has any build
+     * @param completion completion time of the last completed build, in milliseconds
+     * @return the sort key
+     */
+    static long sortKey(int severity, boolean building, boolean built, long completion) {
+        long key = (long) severity << 61;
+        if (building) {
+            key |= 1L << 60;
+        }
+        if (built) {
+            key |= 1L << 59;
+        }
+        return key | (completion & ((1L << 59) - 1));
+    }
+
     /**
      * @return the job
      */
@@ -90,35 +333,22 @@ public final class XFPanelEntry {
      * @return if this job is queued for build
      */
     public Boolean getQueued() {
-        return this.job.isInQueue();
+        return data().queued;
     }
 
     /**
      * @return the job's queue number, if any
      */
     public Integer getQueueNumber() {
-        // placeInQueue==null right after deserialization because it's transient
-        return getView().placeInQueue==null ? null : getView().placeInQueue.get(this.job.getQueueItem());
+        return data().queueNumber;
     }
 
-    public AbstractBuild<?, ?> getLastBuild() {
-        Run<?, ?> run = this.job.getLastBuild();
-        if (run instanceof AbstractBuild<?, ?>) {
-            AbstractBuild<?, ?> lastBuild = (AbstractBuild<?, ?>)run;
-            return lastBuild;
-        }
-        return null;
+    Integer findQueueNumber() {
+        return XFPanelQueueIndex.get().getPosition(this.job.getFullName());
     }
 
-    private void setTimes() {
-        Run<?, ?> run = this.job.getLastCompletedBuild();
-        if (run instanceof AbstractBuild<?, ?>) {
-            AbstractBuild<?, ?> lastBuild = (AbstractBuild<?, ?>)run;
-            if (lastBuild != null) {
-                this.completionTimestamp = lastBuild.getTimestamp();
-                this.completionTimestampString = lastBuild.getTimestampString();
-            }
-        }
+    public AbstractBuild<?, ?> getLastBuild() {
+        return data().lastBuild;
     }
 
     public void setCompletionTimestamp(Calendar completionTimestamp) {
@@ -133,7 +363,15 @@ public final class XFPanelEntry {
         this.completionTimestampString = completionTimestampString;
     }
 
+    /**
+     * Computed on each call, since entries are shared between refreshes by {@link XFPanelSnapshot}.
+     *
+     * @return how long ago the last build completed
+     */
     public String getCompletionTimestampString() {
+        if (this.completionTimestamp != null && this.completionTimestampString.isEmpty()) {
+            return Util.getTimeSpanString(System.currentTimeMillis() - this.completionTimestamp.getTimeInMillis());
+        }
         return this.completionTimestampString;
     }
 
@@ -192,57 +430,36 @@ public final class XFPanelEntry {
      * @return a list will all the currently building runs for this job.
      */
     public List<Run<? , ?>> getBuildsInProgress() {
-        List<Run<?, ?>> runs = new ArrayList<Run<?, ?>>();
-        Run<?, ? > run = this.job.getLastBuild();
-        if (run.isBuilding()) {
-            runs.add(run);
-        }
-
-        Run<?, ?> prev = run.getPreviousBuildInProgress();
-        while (prev != null) {
-            runs.add(prev);
-            prev = prev.getPreviousBuildInProgress();
-        }
-        return runs;
+        return data().buildsInProgress;
     }
 
     /**
      * @return total tests executed
      */
     public int getTestCount() {
-        Run<?, ?> run = this.job.getLastSuccessfulBuild();
-        if (run != null) {
-            AbstractTestResultAction<?> tests = run.getAction(AbstractTestResultAction.class);
-            return tests != null ? tests.getTotalCount() : 0;
-        }
-        return 0;
+        return data().testCount;
     }
 
     /**
      * @return total failed tests
      */
     public int getFailCount() {
-        Run<?, ?> run = this.job.getLastSuccessfulBuild();
-        if (run != null) {
-            AbstractTestResultAction<?> tests = run.getAction(AbstractTestResultAction.class);
-            return tests != null ? tests.getFailCount() : 0;
-        }
-        return 0;
+        return data().failCount;
     }
 
     /**
      * @return total successful tests
      */
     public int getSuccessCount() {
-        return this.getTestCount() - this.getFailCount();
+        return data().successCount;
     }
 
     public int getLastCompletedBuildNumber() {
-        return job.getLastCompletedBuild().getNumber();
+        return data().lastCompletedBuild.getNumber();
     }
 
     public String getLastCompletedBuildTimestampString() {
-        return job.getLastCompletedBuild().getTimestampString();
+        return data().lastCompletedBuild.getTimestampString();
     }
 
     /**
@@ -250,45 +467,14 @@ public final class XFPanelEntry {
      * @author Niko Mahle
      */
     public int getNumberOfFailedBuilds() {
-        Run<?, ?> lastSuccess = this.job.getLastSuccessfulBuild();
-        Run<?, ?> lastCompiled = this.job.getLastCompletedBuild();
-        if (lastSuccess == null || lastCompiled == null) return 0;
-        int numberOfFailedBuilds = lastCompiled.getNumber() - lastSuccess.getNumber();
-        return numberOfFailedBuilds;
+        return data().numberOfFailedBuilds;
     }
 
     /**
      * @return difference between this job's last build successful tests and the previous'
      */
     public String getDiff() {
-        Run<?, ?> run = this.job.getLastSuccessfulBuild();
-        if (run != null) {
-            Run<?, ?> previous = this.getLastSuccessfulFrom(run);
-            if (previous != null) {
-                AbstractTestResultAction<?> tests = run.getAction(AbstractTestResultAction.class);
-                AbstractTestResultAction<?> prevTests = previous.getAction(AbstractTestResultAction.class);
-                if (tests != null && prevTests != null) {
-                    int currentSuccess = tests.getTotalCount() - tests.getFailCount();
-                    int prevSuccess = prevTests.getTotalCount() - prevTests.getFailCount();
-                    return Functions.getDiffString(currentSuccess-prevSuccess);
-                }
-            }
-        }
-        return "";
-    }
-
-    /**
-     * @param run a run
-     * @return the last successful run prior to the given run 
-     */
-    private Run<?, ?> getLastSuccessfulFrom(Run<?, ?> run) {
-        Run<?, ?> r = run.getPreviousBuild();
-        while (r != null
-                && (r.isBuilding() || r.getResult() == null || r.getResult()
-                        .isWorseThan(Result.UNSTABLE))) {
-            r = r.getPreviousBuild();
-        }
-        return r;
+        return data().diff;
     }
 
     /**
@@ -305,13 +491,25 @@ public final class XFPanelEntry {
     }
 
     public String convertCulpritsToString(HashSet<User> input) {
+        List<String> names = new ArrayList<String>();
+        for (User user : input) {
+            names.add(user.getFullName());
+        }
+        return convertCulpritNamesToString(names);
+    }
+
+    /**
+     * @param input full names of the culprits
+     * @return the names to show, as many as configured on the view
+     */
+    String convertCulpritNamesToString(Collection<String> input) {
         String output = "";
-        Iterator<User> it = input.iterator();
+        Iterator<String> it = input.iterator();
 
         int i=0;
         for (; it.hasNext(); i++) {
             if (i < getView().getMaxAmmountOfResponsibles()) {
-                output += it.next().getFullName() + ((it.hasNext()) ? ", " : "");
+                output += it.next() + ((it.hasNext()) ? ", " : "");
             } else {
                 it.next();
             }
@@ -325,56 +523,40 @@ public final class XFPanelEntry {
     }
 
     public String getCulprits() {
-        if (getView().BlameState == Blame.ONLYFIRSTFAILEDBUILD) {
-            Run<?, ?> run = this.job.getLastStableBuild(); //getLastSuccessfulBuild();
-            if ( run == null ){ // if there aren't any successful builds
-                run = this.job.getFirstBuild(); 
-            } else {
-                run = run.getNextBuild();
-            }
-            if (run instanceof AbstractBuild<?, ?>) {
-                AbstractBuild<?, ?> firstFailedBuild = (AbstractBuild<?, ?>) run;
-                return convertCulpritsToString( getCulpritFromBuild( firstFailedBuild ) );
-            }
-        } else if (getView().BlameState == Blame.ONLYLASTFAILEDBUILD) {
-            Run<?, ?> run = this.job.getLastFailedBuild();
-            if (run instanceof AbstractBuild<?, ?>) {
-                AbstractBuild<?, ?> lastFailedBuild = (AbstractBuild<?, ?>) run;
-                return convertCulpritsToString( getCulpritFromBuild( lastFailedBuild ) );
-            }
-        } else if (getView().BlameState == Blame.EVERYINVOLVED) {
-            AbstractBuild<?, ?> build = this.getLastBuild();
-            if (build != null) {
-	            HashSet<User> BlameList = new HashSet<User>( build.getCulprits() );
-	            return convertCulpritsToString( BlameList );
-            }
-        }
-        return " -";
+        return data().culprits;
     }
 
     /**
-     * If the claims plugin is installed, this will return ClaimBuildAction
-     * 
-     * @return claim on the build / null
+     * @return the style class for the state of the job, see {@link XFPanelStylesheet}: ok, failed, broken or other
      */
-    private ClaimBuildAction getClaimAction() {
-        ClaimBuildAction claimAction = null;
+    public String getStatusClass() {
+        return this.statusClass;
+    }
 
-        if (Hudson.getInstance().getPlugin("claim") != null) {
-            Run<?, ?> lastBuild = this.job.getLastBuild();
-            if (lastBuild != null && lastBuild.isBuilding()) {
-                // claims can only be made against builds once they've finished,
-                // so check the previous build if currently building.
-                lastBuild = lastBuild.getPreviousBuild();
-            }
-            if (lastBuild != null && lastBuild instanceof AbstractBuild<?, ?>) {
-                List<ClaimBuildAction> claimActionList = lastBuild.getActions(ClaimBuildAction.class);
-                if (claimActionList.size() == 1) {
-                    claimAction = claimActionList.get(0);
-                }
+    /**
+     * @return the health trend of the job over its last builds
+     */
+    public XFPanelTrend getTrend() {
+        return data().trend;
+    }
+
+    /**
+     * @return the style classes of the results of the job's last builds, oldest first, see {@link XFPanelStylesheet}
+     */
+    public List<String> getTrendClasses() {
+        List<String> classes = new ArrayList<String>();
+        for (Result result : getTrend().getResults()) {
+            if (result == Result.SUCCESS) {
+                classes.add("xfp-ok");
+            } else if (result == Result.UNSTABLE) {
+                classes.add("xfp-failed");
+            } else if (result == Result.FAILURE) {
+                classes.add("xfp-broken");
+            } else {
+                classes.add("xfp-other");
             }
         }
-        return claimAction;
+        return classes;
     }
 
     /**
@@ -382,21 +564,7 @@ public final class XFPanelEntry {
      * @return whether build is claimed or not
      */
     public boolean isClaimed() {
-        boolean result = false;
-        if (getView().getIsClaimPluginInstalled()) {
-            ClaimBuildAction cba = getClaimAction();
-            if (cba != null) {
-                result = cba.isClaimed();
-            }
-            if (result == false){
-                final int claimedTests = getNumClaimedTests();
-                final int totalTests = getFailCount();
-                if (totalTests > 0 && claimedTests == totalTests) {
-                    result = true;
-                }
-            }
-        }
-        return result;
+        return data().claimed;
     }
 
     /**
@@ -408,136 +576,45 @@ public final class XFPanelEntry {
      *         claimed this build.
      */
     public String getClaimInfo() {
-        ClaimBuildAction claimAction = getClaimAction();
-        if (claimAction != null) {
-            if (claimAction.isClaimed()) {
-                String name = claimAction.getClaimedByName();
-                // String reason = claimAction.getReason();
-                if (name != null){
-                    return name;
-                }
-            }
-        }
-        return "";
+        return data().claimInfo;
     }
 
     public hudson.tasks.junit.TestResult getClaimedTestCases(){
-    	Plugin plugin = Jenkins.getInstance().getPlugin("claim");
-    	if (plugin != null) {
-            Run<?, ?> lastBuild = job.getLastBuild();
-            if (lastBuild == null) {
-                return null;
-            }
-            // if building check previous status
-            if (lastBuild.isBuilding()){
-                lastBuild = (AbstractBuild<?, ?>) lastBuild.getPreviousBuild();
-                if (lastBuild == null){
-                    return null;
-                }
-            }
-            List<TestResultAction> results = lastBuild.getActions(TestResultAction.class);
-            if ( results == null || results.size() == 0) {
-                return null;
-            }
-            return results.get(0).getResult();
+        Run<?, ?> run = data().lastFinishedBuild;
+        if (run == null || !getView().getIsClaimPluginInstalled()) {
+            return null;
         }
-        return null;
+        List<hudson.tasks.junit.TestResultAction> results = run.getActions(hudson.tasks.junit.TestResultAction.class);
+        return results != null && results.size() > 0 ? results.get(0).getResult() : null;
     }
 
     public String getClaimInfoByTestCases(){
-        hudson.tasks.junit.TestResult testResult = getClaimedTestCases();
-        if (testResult == null) {
-            return "";
-        }
-
-        String claimers = "";
-        Set<String> claimerNames = new HashSet<String>();
-        for (CaseResult result : testResult.getFailedTests()) {
-            ClaimTestAction claimTestAction = result.getTestAction(ClaimTestAction.class);
-            if (claimTestAction != null) {
-                if (claimTestAction.isClaimed() == true) {
-                    String claimer = claimTestAction.getClaimedBy();
-                    if (claimer != null && claimer != "") {
-                        if (!claimerNames.contains(claimer)) {
-                            claimerNames.add(claimer);
-                            if (claimers != "") {
-                                claimers += ", ";
-                            }
-                            claimers += claimer;
-                        }
-                    }
-                }
-            }
-        }
-        if (claimers == null || claimers == "") {
-            String buildClaimer = "";
-            buildClaimer = getClaimInfo();
-            if (buildClaimer == null || buildClaimer == "") {
-                return "";
-            }
-            return "Build claimed by: " + buildClaimer;
-        }
-        return "Claimed by: " + claimers;
+        return data().claimInfoByTestCases;
     }
 
     public int getNumClaimedTests() {
-        hudson.tasks.junit.TestResult testResult = getClaimedTestCases();
-        if (testResult != null) {
-            int numClaimedTests = 0;
-            for (CaseResult result : testResult.getFailedTests()) {
-                ClaimTestAction claimTestAction = result.getTestAction(ClaimTestAction.class);
-                if (claimTestAction != null) {
-                    if (claimTestAction.isClaimed() == true) {
-                        numClaimedTests++;
-                    }
-                }
-            }
-            return numClaimedTests;
-        }
-        return -1;
+        return data().numClaimedTests;
     }
 
     /**
      * Returns number of failed tests or number of unclaimed failed tests
      */
     public String getNumberOfTests(){
-        final int failedTests = getFailCount();
-        if (failedTests == 0 && getView().getShowZeroTestCounts() == false) {
-                return "";
-        }
-        if (getView().getReplaceNumberOfTestCases()) {
-            final int claimedTests = getNumClaimedTests();
-            if (claimedTests >= 0) {
-                return Integer.toString(failedTests - claimedTests);
-            }
-        }
-        return Integer.toString(failedTests);
+        return data().numberOfTests;
     }
 
     /**
      * @return color to be used to show the test diff
      */
     public String getDiffColor() {
-        String diff = this.getDiff().trim();
-        if (diff.length() > 0) {
-            if (diff.startsWith("-")) {
-                return "#FF0000";
-            } else {
-                return "#00FF00";
-            }
-        }
-        return "#" + getView().getBuildFontColor();
+        return data().diffColor;
     }
 
     /**
      * @return the percentage of successful tests versus the total
      */
     public String getSuccessPercentage() {
-        if (this.getTestCount() > 0) {
-            Double perc = (this.getSuccessCount() / (this.getTestCount() * 1D));
-            return NumberFormat.getPercentInstance().format(perc);
-        }
-        return "";
+        return data().successPercentage;
     }
 
     public String getBuildStatus(AbstractBuild<?, ?> build){
@@ -545,7 +622,7 @@ public final class XFPanelEntry {
             return "UNBUILT";
         }
         if (build.isBuilding()) {
-            build = (AbstractBuild<?, ?>) build.getPreviousBuild();
+            build = (AbstractBuild<?, ?>) touch(build.getPreviousBuild());
             return getBuildStatus(build);
         }
         Result result = build.getResult();
@@ -556,34 +633,26 @@ public final class XFPanelEntry {
     }
 
     public boolean isBuildSuccessful() {
-        AbstractBuild<?, ?> build = this.getLastBuild();
-        if (build != null) {
-            String buildStatus = getBuildStatus(build);
-            return buildStatus.equals("SUCCESS");
-        }
-        return false;
+        return "SUCCESS".equals(data().buildStatus);
     }
 
     public boolean isBuildUnstable(){
-        AbstractBuild<?, ?> build = this.getLastBuild();
-        if (build != null) {
-            String buildStatus = getBuildStatus(build);
-            return buildStatus.equals("UNSTABLE");
-        }
-        return false;
+        return "UNSTABLE".equals(data().buildStatus);
     }
 
     /**
      * Determines some information of the current job like which colors use, whether it's building or not or broken.
      */
     private void findStatus() {
-        switch (this.job.getIconColor()) {
+        this.iconColor = this.job.getIconColor();
+        switch (this.iconColor) {
         case BLUE_ANIME:
             this.building = true;
         case BLUE:
             this.backgroundColor = getView().getColors().getOkBG(); 
             this.color = getView().getColors().getOkFG();
             this.colorFade = "build-fade-ok.png";
+            this.statusClass = "ok";
             this.broken = false;
             break;
         case YELLOW_ANIME:
@@ -592,6 +661,7 @@ public final class XFPanelEntry {
             this.backgroundColor = getView().getColors().getFailedBG(); 
             this.color = getView().getColors().getFailedFG();
             this.colorFade = "build-fade-fail.png";
+            this.statusClass = "failed";
             this.broken = false;
             break;
         case RED_ANIME:
@@ -600,6 +670,7 @@ public final class XFPanelEntry {
             this.backgroundColor = getView().getColors().getBrokenBG(); 
             this.color = getView().getColors().getBrokenFG();
             this.colorFade = "build-fade-broken.png";
+            this.statusClass = "broken";
             this.broken = true;
             break;
         case GREY_ANIME:
@@ -610,6 +681,7 @@ public final class XFPanelEntry {
             this.backgroundColor = getView().getColors().getOtherBG(); 
             this.color = getView().getColors().getOtherFG();
             this.colorFade = "build-fade-other.png";
+            this.statusClass = "other";
             this.broken = true;
         }
     }
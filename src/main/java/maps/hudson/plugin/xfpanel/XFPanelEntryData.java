@@ -0,0 +1,270 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.Functions;
+import hudson.model.AbstractBuild;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.plugins.claim.ClaimBuildAction;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import maps.hudson.plugin.xfpanel.XFPanelView.Blame;
+
+/**
+ * Everything an {@link XFPanelEntry} shows, collected in a single pass over the job's builds.
+ *
+ * Templates ask for most of these values several times per tile. Each of those calls used to resolve
+ * the builds and scan their actions again; now every build is looked up and every action list is
+ * scanned at most once per entry.
+ *
+ * On a {@link XFPanelView#getLightweight() lightweight} view only the last build is looked at, and everything
+ * about older builds comes from the {@link XFPanelJobIndex} as it is, so that no older build is loaded from
+ * disk. Builds in progress are followed, since running builds are always in memory.
+ */
+final class XFPanelEntryData {
+
+    final Run<?, ?> lastRun;
+    final AbstractBuild<?, ?> lastBuild;
+    final Run<?, ?> lastFinishedBuild;
+    final Run<?, ?> lastCompletedBuild;
+    final Calendar completionTimestamp;
+    final List<Run<?, ?>> buildsInProgress;
+    final boolean queued;
+    final Integer queueNumber;
+
+    final int testCount;
+    final int failCount;
+    final int successCount;
+    final String successPercentage;
+    final String diff;
+    final String diffColor;
+    final int numberOfFailedBuilds;
+    final XFPanelTrend trend;
+    final String numberOfTests;
+
+    final String buildStatus;
+    final String culprits;
+
+    final int numClaimedTests;
+    final boolean claimed;
+    final String claimInfo;
+    final String claimInfoByTestCases;
+
+    /**
+     * Nothing collected yet: no builds, no tests, no culprits and no claims.
+     * @param view the view the entry is shown on
+     */
+    XFPanelEntryData(XFPanelView view) {
+        this.lastRun = null;
+        this.lastBuild = null;
+        this.lastFinishedBuild = null;
+        this.lastCompletedBuild = null;
+        this.completionTimestamp = null;
+        this.buildsInProgress = Collections.emptyList();
+        this.queued = false;
+        this.queueNumber = null;
+        this.testCount = 0;
+        this.failCount = 0;
+        this.successCount = 0;
+        this.successPercentage = "";
+        this.diff = "";
+        this.diffColor = "#" + view.getBuildFontColor();
+        this.numberOfFailedBuilds = 0;
+        this.trend = new XFPanelTrend(new byte[0], new long[0], 0, 0, false);
+        this.numberOfTests = "";
+        this.buildStatus = null;
+        this.culprits = " -";
+        this.numClaimedTests = 0;
+        this.claimed = false;
+        this.claimInfo = "";
+        this.claimInfoByTestCases = "";
+    }
+
+    /**
+     * Collects the data shown for the given entry.
+     * @param entry the entry to collect data for
+     */
+    XFPanelEntryData(XFPanelEntry entry) {
+        XFPanelView view = entry.getView();
+        Job<?, ?> job = entry.getJob();
+        boolean lightweight = Boolean.TRUE.equals(view.getLightweight());
+
+        long start = System.nanoTime();
+        Run<?, ?> last = entry.touch(job.getLastBuild());
+        this.lastRun = last;
+        this.lastBuild = last instanceof AbstractBuild<?, ?> ? (AbstractBuild<?, ?>) last : null;
+        Run<?, ?> lastFinished = last;
+        if (last != null && last.isBuilding()) {
+            // claims can only be made against builds once they've finished,
+            // so check the previous build if currently building.
+            lastFinished = lightweight ? null : entry.touch(last.getPreviousBuild());
+        }
+        this.lastFinishedBuild = lastFinished;
+
+        this.lastCompletedBuild = lightweight ? lastFinished : entry.touch(job.getLastCompletedBuild());
+        this.completionTimestamp = this.lastCompletedBuild instanceof AbstractBuild<?, ?>
+                ? this.lastCompletedBuild.getTimestamp() : null;
+
+        List<Run<?, ?>> runs = new ArrayList<Run<?, ?>>();
+        if (Boolean.TRUE.equals(entry.getBuilding()) && last != null) {
+            if (last.isBuilding()) {
+                runs.add(last);
+            }
+            // older builds still running are only found by walking the history
+            Run<?, ?> prev = lightweight ? null : entry.touch(last.getPreviousBuildInProgress());
+            while (prev != null) {
+                runs.add(prev);
+                prev = entry.touch(prev.getPreviousBuildInProgress());
+            }
+        }
+        this.buildsInProgress = Collections.unmodifiableList(runs);
+        entry.record(XFPanelMetrics.Phase.BUILDS, start);
+
+        start = System.nanoTime();
+        this.queueNumber = entry.findQueueNumber();
+        entry.record(XFPanelMetrics.Phase.QUEUE_SCAN, start);
+        this.queued = this.queueNumber != null;
+
+        // tests
+        start = System.nanoTime();
+        XFPanelJobIndex index = lightweight
+                ? XFPanelJobIndex.peek(job) : XFPanelJobIndex.get(job, this.lastCompletedBuild, entry.getTouchedRuns());
+        XFPanelJobIndex.TestCounts tests = index.getTestCounts(0);
+        boolean hasTests = tests != null && tests.hasTests();
+        this.testCount = hasTests ? tests.getTotal() : 0;
+        this.failCount = hasTests ? tests.getFailed() : 0;
+        this.successCount = this.testCount - this.failCount;
+        this.successPercentage = this.testCount > 0
+                ? NumberFormat.getPercentInstance().format(this.successCount / (this.testCount * 1D)) : "";
+        XFPanelJobIndex.TestCounts previous = index.getTestCounts(1);
+        this.diff = hasTests && previous != null && previous.hasTests()
+                ? Functions.getDiffString(tests.getPassed() - previous.getPassed()) : "";
+        String trimmedDiff = this.diff.trim();
+        if (trimmedDiff.length() > 0) {
+            this.diffColor = trimmedDiff.startsWith("-") ? "#FF0000" : "#00FF00";
+        } else {
+            this.diffColor = "#" + view.getBuildFontColor();
+        }
+        this.numberOfFailedBuilds = tests != null && this.lastCompletedBuild != null
+                ? this.lastCompletedBuild.getNumber() - tests.getNumber() : 0;
+        this.trend = index.getTrend();
+        entry.record(XFPanelMetrics.Phase.TESTS, start);
+
+        if (lightweight) {
+            Result result = entry.getIconResult();
+            this.buildStatus = this.lastBuild == null ? null : result != null ? result.toString() : "UNKNOWN";
+        } else {
+            this.buildStatus = this.lastBuild != null ? entry.getBuildStatus(this.lastBuild) : null;
+        }
+        start = System.nanoTime();
+        this.culprits = findCulprits(entry, view, index, lightweight);
+        entry.record(XFPanelMetrics.Phase.CULPRITS, start);
+
+        // claims
+        start = System.nanoTime();
+        boolean claimPlugin = view.getIsClaimPluginInstalled();
+        ClaimBuildAction claimAction = null;
+        XFPanelClaimIndex.Summary testClaims = XFPanelClaimIndex.Summary.NO_TESTS;
+        if (claimPlugin && lastFinished != null) {
+            if (lastFinished instanceof AbstractBuild<?, ?>) {
+                List<ClaimBuildAction> claimActionList = lastFinished.getActions(ClaimBuildAction.class);
+                if (claimActionList != null && claimActionList.size() == 1) {
+                    claimAction = claimActionList.get(0);
+                }
+            }
+            testClaims = XFPanelClaimIndex.get(job, lastFinished);
+        }
+        entry.record(XFPanelMetrics.Phase.CLAIMS, start);
+        int claimedTests = testClaims.getClaimed();
+        this.numClaimedTests = claimedTests;
+
+        String buildClaimer = "";
+        if (claimAction != null && claimAction.isClaimed() && claimAction.getClaimedByName() != null) {
+            buildClaimer = claimAction.getClaimedByName();
+        }
+        this.claimInfo = buildClaimer;
+
+        if (testClaims == XFPanelClaimIndex.Summary.NO_TESTS) {
+            this.claimInfoByTestCases = "";
+        } else if (testClaims.getClaimers().isEmpty()) {
+            this.claimInfoByTestCases = buildClaimer.length() > 0 ? "Build claimed by: " + buildClaimer : "";
+        } else {
+            StringBuilder claimers = new StringBuilder();
+            for (String claimer : testClaims.getClaimers()) {
+                if (claimers.length() > 0) {
+                    claimers.append(", ");
+                }
+                claimers.append(claimer);
+            }
+            this.claimInfoByTestCases = "Claimed by: " + claimers;
+        }
+
+        boolean isClaimed = false;
+        if (claimPlugin) {
+            isClaimed = claimAction != null && claimAction.isClaimed();
+            if (!isClaimed && this.failCount > 0 && claimedTests == this.failCount) {
+                isClaimed = true;
+            }
+        }
+        this.claimed = isClaimed;
+
+        // number of failed tests or number of unclaimed failed tests
+        if (this.failCount == 0 && view.getShowZeroTestCounts() == false) {
+            this.numberOfTests = "";
+        } else if (view.getReplaceNumberOfTestCases() && claimedTests >= 0) {
+            this.numberOfTests = Integer.toString(this.failCount - claimedTests);
+        } else {
+            this.numberOfTests = Integer.toString(this.failCount);
+        }
+    }
+
+    /**
+     * @return the culprit(s)/responsible(s) for the job, as configured on the view
+     */
+    private String findCulprits(XFPanelEntry entry, XFPanelView view, XFPanelJobIndex index, boolean lightweight) {
+        if (view.BlameState == Blame.ONLYFIRSTFAILEDBUILD) {
+            List<String> culprits = index.getFirstFailedCulprits();
+            if (culprits != null) {
+                return entry.convertCulpritNamesToString(culprits);
+            }
+        } else if (view.BlameState == Blame.ONLYLASTFAILEDBUILD) {
+            List<String> culprits = index.getLastFailedCulprits();
+            if (culprits != null) {
+                return entry.convertCulpritNamesToString(culprits);
+            }
+        } else if (view.BlameState == Blame.EVERYINVOLVED && this.lastBuild != null) {
+            if (this.lastBuild.getNumber() == index.getLastNumber()) {
+                return entry.convertCulpritNamesToString(index.getCulprits());
+            }
+            if (this.lastBuild.isBuilding() && this.lastBuild.getNumber() > index.getLastNumber()) {
+                // like AbstractBuild.getCulprits(): a running build inherits the culprits of a failing one
+                Set<String> culprits = new LinkedHashSet<String>();
+                if (index.isFailing()) {
+                    culprits.addAll(index.getCulprits());
+                }
+                for (User user : entry.getCulpritFromBuild(this.lastBuild)) {
+                    culprits.add(user.getFullName());
+                }
+                return entry.convertCulpritNamesToString(culprits);
+            }
+            if (lightweight) {
+                // the index doesn't know the last build yet, and the builds since the last success may not be loaded
+                return " -";
+            }
+            Set<User> culprits = this.lastBuild.getCulprits();
+            if (culprits != null) {
+                return entry.convertCulpritsToString( new HashSet<User>( culprits ) );
+            }
+        }
+        return " -";
+    }
+}
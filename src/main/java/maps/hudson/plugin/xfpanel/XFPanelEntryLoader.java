@@ -0,0 +1,359 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Job;
+import hudson.security.ACL;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+/**
+ * Builds the entries of a panel in parallel, giving each job a time budget.
+ *
+ * A job whose builds are slow to load doesn't hold up the others: once its budget is spent, the entry of
+ * the previous panel is shown instead, marked as stale, or a {@link XFPanelEntry#pending pending} entry if
+ * there is none. Its computation goes on in the background, and is never started twice at the same time.
+ * Once it is done, {@link #hasLate()} tells the view to {@link #collectLate() collect} it and swap it into the
+ * panel it is showing. A computation that runs for longer than {@link #TASK_TIMEOUT} is written off: another
+ * thread is started in its place, so that a few jobs hanging on their build records can't leave every view
+ * with pending tiles. Entries are built as {@link ACL#SYSTEM}, like the panels they are part of.
+ */
+final class XFPanelEntryLoader {
+
+    /**
+     * Number of threads building entries, shared by all views.
+     */
+    static final int THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Time after which a computation is written off, in milliseconds. It isn't interrupted, and its entry is still
+     * used once it is done, but its thread no longer counts against {@link #THREADS}.
+     */
+    static final long TASK_TIMEOUT = Long.getLong(XFPanelEntryLoader.class.getName() + ".taskTimeout", 60000);
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "XFPanel entry loader " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Number of computations written off and still running, at most {@link #THREADS}; guarded by
+     * {@link #executor}.
+     */
+    private static int writtenOff;
+
+    private final XFPanelView view;
+    /**
+     * Computations of earlier panels that weren't collected yet, so a slow job isn't computed twice at the same
+     * time and its result isn't lost.
+     */
+    private final Map<Job<?, ?>, EntryTask> running = new HashMap<Job<?, ?>, EntryTask>();
+    /**
+     * Set once a computation that took too long is done.
+     */
+    private volatile boolean late;
+
+    /**
+     * C'tor
+     * @param view the view to build entries for
+     */
+    XFPanelEntryLoader(XFPanelView view) {
+        this.view = view;
+    }
+
+    /**
+     * Stops the threads of all loaders, interrupting the computations in progress.
+     */
+    static void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param jobs the jobs to build entries for
+     * @param budget time each job may take, in milliseconds
+     * @param previous entries of the previous panel, by job
+     * @return the entries, in the order of the jobs
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<XFPanelEntry> load(Collection<Job<?, ?>> jobs, long budget, Map<Job<?, ?>, XFPanelEntry> previous)
+            throws InterruptedException {
+        long generation = XFPanelChangeTracker.getGeneration();
+        Map<Job<?, ?>, XFPanelEntry> fallbacks = new HashMap<Job<?, ?>, XFPanelEntry>(previous);
+        List<EntryTask> tasks = new ArrayList<EntryTask>(jobs.size());
+        synchronized (this.running) {
+            // results of jobs that left the panel won't be collected; those still running are kept, so that a job
+            // coming back isn't computed twice
+            Set<Job<?, ?>> members = new HashSet<Job<?, ?>>(jobs);
+            Iterator<Map.Entry<Job<?, ?>, EntryTask>> it = this.running.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Job<?, ?>, EntryTask> entry = it.next();
+                if (!members.contains(entry.getKey()) && entry.getValue().future.isDone()) {
+                    it.remove();
+                }
+            }
+            for (Job<?, ?> job : jobs) {
+                EntryTask task = this.running.get(job);
+                if (task != null && task.future.isDone() && task.generation != generation) {
+                    // finished, but something changed since it started: still newer than the previous entry
+                    XFPanelEntry finished = task.getFinished();
+                    if (finished != null) {
+                        fallbacks.put(job, finished);
+                    }
+                    task = null;
+                }
+                if (task == null) {
+                    task = new EntryTask(job, generation);
+                    task.future = executor.submit(task);
+                    this.running.put(job, task);
+                }
+                tasks.add(task);
+            }
+        }
+
+        // a job may have to wait for the ones before it to get a thread
+        long deadline = System.currentTimeMillis() + budget * (1 + jobs.size() / THREADS);
+        List<XFPanelEntry> entries = new ArrayList<XFPanelEntry>(tasks.size());
+        for (EntryTask task : tasks) {
+            XFPanelEntry entry = task.get(budget, deadline);
+            if (entry == null) {
+                entry = task.abandon();
+            }
+            if (entry != null) {
+                collected(task);
+                entries.add(entry);
+            } else {
+                task.checkTimeout();
+                XFPanelEntry old = fallbacks.get(task.job);
+                entries.add(old != null ? old.asStale() : XFPanelEntry.pending(this.view, task.job));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return true if a computation that took too long for its panel is done, see {@link #collectLate()}
+     */
+    boolean hasLate() {
+        return this.late;
+    }
+
+    /**
+     * @return the entries of the computations that took too long for their panel and are done since, by job
+     */
+    Map<Job<?, ?>, XFPanelEntry> collectLate() {
+        Map<Job<?, ?>, XFPanelEntry> collected = new HashMap<Job<?, ?>, XFPanelEntry>();
+        synchronized (this.running) {
+            this.late = false;
+            Iterator<EntryTask> it = this.running.values().iterator();
+            while (it.hasNext()) {
+                EntryTask task = it.next();
+                XFPanelEntry entry = task.getLate();
+                if (entry != null) {
+                    collected.put(task.job, entry);
+                    it.remove();
+                }
+            }
+        }
+        return collected;
+    }
+
+    private void collected(EntryTask task) {
+        synchronized (this.running) {
+            if (this.running.get(task.job) == task) {
+                this.running.remove(task.job);
+            }
+        }
+    }
+
+    /**
+     * Adds threads for computations written off, or removes them once those are done.
+     *
+     * @param delta number of computations written off, or done since they were
+     */
+    private static void resize(int delta) {
+        synchronized (executor) {
+            writtenOff += delta;
+            int size = THREADS + writtenOff;
+            if (delta > 0) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    private final class EntryTask implements Callable<XFPanelEntry> {
+        private final Job<?, ?> job;
+        /**
+         * {@link XFPanelChangeTracker} generation the computation started at.
+         */
+        private final long generation;
+        private volatile long started;
+        private Future<XFPanelEntry> future;
+        /**
+         * Guarded by this task: the entry once computed, whether the panel it was started for gave up waiting,
+         * whether it was written off, and whether it ended.
+         */
+        private XFPanelEntry result;
+        private boolean abandoned;
+        private boolean timedOut;
+        private boolean ended;
+
+        private EntryTask(Job<?, ?> job, long generation) {
+            this.job = job;
+            this.generation = generation;
+        }
+
+        public XFPanelEntry call() {
+            this.started = System.currentTimeMillis();
+            SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+            XFPanelEntry computed = null;
+            try {
+                XFPanelEntry entry = new XFPanelEntry(view, this.job);
+                entry.init();
+                computed = entry;
+                return entry;
+            } finally {
+                SecurityContextHolder.setContext(previous);
+                boolean wasLate;
+                boolean wasTimedOut;
+                synchronized (this) {
+                    this.result = computed;
+                    this.ended = true;
+                    wasLate = this.abandoned;
+                    wasTimedOut = this.timedOut;
+                }
+                if (wasLate) {
+                    late = true;
+                }
+                if (wasTimedOut) {
+                    resize(-1);
+                }
+            }
+        }
+
+        /**
+         * Gives up waiting for this computation, so that its entry is collected by {@link #collectLate()}.
+         *
+         * @return the entry if it was computed in the meantime, otherwise null
+         */
+        private synchronized XFPanelEntry abandon() {
+            if (this.ended) {
+                return this.result;
+            }
+            this.abandoned = true;
+            return null;
+        }
+
+        /**
+         * @return the entry, if this computation was given up on and is done since, otherwise null
+         */
+        private synchronized XFPanelEntry getLate() {
+            return this.abandoned ? this.result : null;
+        }
+
+        /**
+         * Writes this computation off if it is running for longer than {@link #TASK_TIMEOUT}, unless as many as
+         * {@link #THREADS} already are.
+         */
+        private void checkTimeout() {
+            long start = this.started;
+            if (start == 0 || System.currentTimeMillis() - start < TASK_TIMEOUT) {
+                return;
+            }
+            synchronized (this) {
+                if (this.ended || this.timedOut) {
+                    return;
+                }
+                synchronized (executor) {
+                    if (writtenOff >= THREADS) {
+                        return;
+                    }
+                    this.timedOut = true;
+                    resize(1);
+                }
+            }
+        }
+
+        /**
+         * @return the entry of a finished computation, null if it failed
+         */
+        private XFPanelEntry getFinished() throws InterruptedException {
+            try {
+                return this.future.get();
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return the entry, however long it takes
+         */
+        private XFPanelEntry get() throws InterruptedException {
+            try {
+                return this.future.get();
+            } catch (ExecutionException e) {
+                throw rethrow(e);
+            }
+        }
+
+        /**
+         * @param budget time the job may take once started, in milliseconds
+         * @param deadline time after which a job that didn't start yet is given up on
+         * @return the entry, or null if it took too long
+         */
+        private XFPanelEntry get(long budget, long deadline) throws InterruptedException {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long start = this.started;
+                long wait = start != 0 ? start + budget - now : deadline - now;
+                if (wait <= 0) {
+                    return this.future.isDone() ? get() : null;
+                }
+                try {
+                    return this.future.get(start != 0 ? wait : Math.min(wait, budget), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // check again whether it started in the meantime
+                } catch (ExecutionException e) {
+                    throw rethrow(e);
+                }
+            }
+        }
+
+        private RuntimeException rethrow(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            return new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the tile of a single job costs, for the explain page of a view.
+ *
+ * The entry of the job is built from scratch, and the time of each of its lookups is recorded here instead of
+ * in the {@link XFPanelMetrics} of the view. Along with it go the sizes that usually explain a slow tile: the
+ * number of build records looked at to build the entry and the number of tests of its last report.
+ */
+public final class XFPanelExplain {
+
+    /**
+     * What is timed, in the order of the columns of the explain page. All but {@link #TOTAL} are keys of
+     * {@link XFPanelMetrics.Phase} or of the calls timed by {@link #explain}.
+     */
+    static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList(
+            XFPanelMetrics.Phase.INIT.getKey(), XFPanelMetrics.Phase.BUILDS.getKey(), XFPanelMetrics.Phase.TESTS.getKey(),
+            XFPanelMetrics.Phase.QUEUE_SCAN.getKey(), XFPanelMetrics.Phase.CULPRITS.getKey(),
+            XFPanelMetrics.Phase.CLAIMS.getKey(), "claimedTestCases", "name", "render"));
+
+    static final String TOTAL = "total";
+
+    private final Job<?, ?> job;
+    private final Map<String, Long> costs = new LinkedHashMap<String, Long>();
+    private final Set<Run<?, ?>> runs = new HashSet<Run<?, ?>>();
+    private int buildsInProgress;
+    private int tests;
+
+    /**
+     * C'tor
+     * @param job the job to explain
+     */
+    XFPanelExplain(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    /**
+     * Builds the entries of the given jobs one by one and times what they do.
+     *
+     * @param view the view
+     * @param jobs the jobs of the view
+     * @param rootURL the root URL of Jenkins, to render tiles with
+     * @return the costs of the jobs, most expensive first
+     */
+    static List<XFPanelExplain> explain(XFPanelView view, Collection<Job<?, ?>> jobs, String rootURL) {
+        XFPanelRenderer renderer = new XFPanelRenderer(view, rootURL);
+        List<XFPanelExplain> explained = new ArrayList<XFPanelExplain>();
+        for (Job<?, ?> job : jobs) {
+            XFPanelExplain explain = new XFPanelExplain(job);
+            XFPanelEntry entry = new XFPanelEntry(view, job);
+            entry.setExplain(explain);
+            long total = System.nanoTime();
+
+            entry.init();
+            long start = System.nanoTime();
+            entry.getClaimedTestCases();
+            explain.add("claimedTestCases", System.nanoTime() - start);
+            start = System.nanoTime();
+            entry.getName();
+            explain.add("name", System.nanoTime() - start);
+            start = System.nanoTime();
+            renderer.render(entry);
+            explain.add("render", System.nanoTime() - start);
+
+            explain.add(TOTAL, System.nanoTime() - total);
+            explain.buildsInProgress = entry.getBuildsInProgress().size();
+            explain.tests = entry.getTestCount();
+            explained.add(explain);
+        }
+        Collections.sort(explained, new Comparator<XFPanelExplain>() {
+            public int compare(XFPanelExplain a, XFPanelExplain b) {
+                long costA = a.getNanos(TOTAL);
+                long costB = b.getNanos(TOTAL);
+                return costA > costB ? -1 : (costA == costB ? 0 : 1);
+            }
+        });
+        return explained;
+    }
+
+    void add(String key, long nanos) {
+        Long cost = this.costs.get(key);
+        this.costs.put(key, cost != null ? cost + nanos : nanos);
+    }
+
+    /**
+     * @return the builds looked at while the entry was built, see {@link XFPanelEntry#touch(Run)}
+     */
+    Set<Run<?, ?>> getRuns() {
+        return this.runs;
+    }
+
+    private long getNanos(String key) {
+        Long cost = this.costs.get(key);
+        return cost != null ? cost : 0;
+    }
+
+    /**
+     * @return the job
+     */
+    public Job<?, ?> getJob() {
+        return this.job;
+    }
+
+    /**
+     * @param key one of {@link #COLUMNS}, or {@link #TOTAL}
+     * @return the time spent on it, in milliseconds
+     */
+    public double getMillis(String key) {
+        return getNanos(key) / 1000L / 1000D;
+    }
+
+    /**
+     * @return the number of build records looked at while the entry was built
+     */
+    public int getBuilds() {
+        return this.runs.size();
+    }
+
+    /**
+     * @return the number of builds of the job in progress
+     */
+    public int getBuildsInProgress() {
+        return this.buildsInProgress;
+    }
+
+    /**
+     * @return the number of tests of the job's last report
+     */
+    public int getTests() {
+        return this.tests;
+    }
+}
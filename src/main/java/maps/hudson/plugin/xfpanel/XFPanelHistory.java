@@ -0,0 +1,94 @@
+package maps.hudson.plugin.xfpanel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The last few versions of a panel, as served to clients, so that they can ask for the tiles that changed
+ * since the version they have.
+ *
+ * A new version is recorded whenever the visible entries, their order, or what one of them displays changes.
+ * Versions are taken of the panel of all jobs of the view, whoever polls it, so that users who may see different
+ * jobs share them; their deltas are {@link XFPanelDelta#filter filtered} afterwards. Version numbers start at the
+ * creation time of the history, so they keep increasing across restarts.
+ */
+final class XFPanelHistory {
+
+    /**
+     * Number of versions kept. Clients further behind get a full snapshot.
+     */
+    static final int SIZE = 16;
+
+    private final LinkedList<Version> versions = new LinkedList<Version>();
+    private long lastVersion = System.currentTimeMillis();
+
+    /**
+     * Records the current state of the panel if it differs from the last one, and compares it with
+     * the given version.
+     *
+     * @param since the version the client has, or a negative number if none
+     * @param visible the entries of all jobs currently visible, in display order
+     * @return the changes to apply to the client's version, for all jobs
+     */
+    synchronized XFPanelDelta diff(long since, List<XFPanelEntry> visible) {
+        List<String> order = new ArrayList<String>(visible.size());
+        Map<String, String> keys = new HashMap<String, String>();
+        for (XFPanelEntry entry : visible) {
+            String name = entry.getJob().getFullName();
+            order.add(name);
+            keys.put(name, entry.getDisplayKey());
+        }
+
+        Version latest = this.versions.peekLast();
+        if (latest == null || !latest.order.equals(order) || !latest.keys.equals(keys)) {
+            latest = new Version(++this.lastVersion, order, keys);
+            this.versions.addLast(latest);
+            if (this.versions.size() > SIZE) {
+                this.versions.removeFirst();
+            }
+        }
+
+        Version base = find(since);
+        if (base == null) {
+            return new XFPanelDelta(latest.number, true, order, visible, new ArrayList<String>());
+        }
+        List<XFPanelEntry> changed = new ArrayList<XFPanelEntry>();
+        for (XFPanelEntry entry : visible) {
+            String name = entry.getJob().getFullName();
+            if (!keys.get(name).equals(base.keys.get(name))) {
+                changed.add(entry);
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String name : base.order) {
+            if (!keys.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        return new XFPanelDelta(latest.number, false, order, changed, removed);
+    }
+
+    private Version find(long number) {
+        for (Version version : this.versions) {
+            if (version.number == number) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    private static final class Version {
+        private final long number;
+        private final List<String> order;
+        private final Map<String, String> keys;
+
+        private Version(long number, List<String> order, Map<String, String> keys) {
+            this.number = number;
+            this.order = order;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.User;
+import hudson.model.listeners.RunListener;
+import hudson.scm.ChangeLogSet.Entry;
+import hudson.tasks.test.AbstractTestResultAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * What the panel needs to know about the build history of a job, kept up to date as builds complete: the
+ * culprits of the current failures, the test counts of the recent successful builds and the health trend.
+ *
+ * Answering these questions from the builds themselves means walking back through old builds and loading
+ * each of them from disk. Instead, every completed build is folded into this index once, and the index is
+ * saved next to the job's configuration in {@link #FILE_NAME}. An index that missed builds, for instance
+ * because the plugin was installed later, is rebuilt from the history the first time it is used. Lightweight
+ * views never rebuild it; there an index without history is started from the next build that completes and
+ * knows that build only, until a view that does rebuild it uses it.
+ */
+public final class XFPanelJobIndex {
+
+    /**
+     * Name of the file the index is saved to, in the job's root directory.
+     */
+    static final String FILE_NAME = "xfpanel-index.xml";
+
+    /**
+     * Number of successful or unstable builds whose test counts are kept.
+     */
+    static final int TEST_HISTORY = 16;
+
+    /**
+     * Number of completed builds the health trend covers.
+     */
+    static final int TREND_SIZE = 30;
+
+    private static final Logger LOGGER = Logger.getLogger(XFPanelJobIndex.class.getName());
+
+    private static final Map<Job<?, ?>, XFPanelJobIndex> indexes = new WeakHashMap<Job<?, ?>, XFPanelJobIndex>();
+
+    private transient XmlFile file;
+    /**
+     * Collects the builds looked at while the index is filled, if anyone asked for them.
+     */
+    private transient Collection<Run<?, ?>> touched;
+
+    /**
+     * Number of the last completed build folded into this index, -1 if it was never filled.
+     */
+    private int lastNumber = -1;
+    /**
+     * True if the index was started from a completed build rather than filled from the history, so it knows
+     * nothing about the builds before that one.
+     */
+    private boolean partial;
+    /**
+     * True if the last completed build was worse than {@link Result#SUCCESS}.
+     */
+    private boolean failing;
+    /**
+     * Authors of the changes since the last successful build.
+     */
+    private List<String> culprits = new ArrayList<String>();
+    /**
+     * Authors of the changes of the first build after the last stable build, null if the last build is stable.
+     */
+    private List<String> firstFailedCulprits;
+    /**
+     * Authors of the changes of the last failed build, null if no build failed.
+     */
+    private List<String> lastFailedCulprits;
+    /**
+     * Numbers of the builds the authors above are taken from, 0 if none.
+     */
+    private int firstFailedNumber;
+    private int lastFailedNumber;
+    /**
+     * Number, total tests and failed tests of the last {@link #TEST_HISTORY} successful or unstable builds,
+     * oldest first. A total of -1 means the build has no test results.
+     */
+    private int[] testBuilds = new int[0];
+    private int[] testTotals = new int[0];
+    private int[] testFailures = new int[0];
+    /**
+     * Ring buffer of the result ordinals, numbers and completion times of the last {@link #TREND_SIZE} completed
+     * builds; the oldest one is overwritten first.
+     */
+    private byte[] trendResults = new byte[TREND_SIZE];
+    private int[] trendNumbers = new int[TREND_SIZE];
+    private long[] trendCompletions = new long[TREND_SIZE];
+    private int trendNext;
+    private int trendCount;
+    private int redStreak;
+    private long firstFailure;
+    /**
+     * True if the red streak started before the oldest build the index was filled from, so it is longer than
+     * {@link #redStreak} and started before {@link #firstFailure}.
+     */
+    private boolean redStreakOpen;
+
+    private XFPanelJobIndex() {
+    }
+
+    private Object readResolve() {
+        if (this.testBuilds == null || this.testTotals == null || this.testFailures == null) {
+            // saved by a version that didn't keep test counts or trends yet
+            this.lastNumber = -1;
+            this.testBuilds = new int[0];
+            this.testTotals = new int[0];
+            this.testFailures = new int[0];
+        }
+        if (this.trendResults == null || this.trendResults.length != TREND_SIZE
+                || this.trendNumbers == null || this.trendNumbers.length != TREND_SIZE
+                || this.trendCompletions == null || this.trendCompletions.length != TREND_SIZE) {
+            this.lastNumber = -1;
+            this.trendResults = new byte[TREND_SIZE];
+            this.trendNumbers = new int[TREND_SIZE];
+            this.trendCompletions = new long[TREND_SIZE];
+        }
+        return this;
+    }
+
+    /**
+     * @param job a job
+     * @param lastCompleted the last completed build of the job, if any
+     * @return the up to date index of the job
+     */
+    static XFPanelJobIndex get(Job<?, ?> job, Run<?, ?> lastCompleted) {
+        return get(job, lastCompleted, null);
+    }
+
+    /**
+     * @param job a job
+     * @param lastCompleted the last completed build of the job, if any
+     * @param touched collects the builds looked at if the index has to be filled, may be null
+     * @return the up to date index of the job
+     */
+    static XFPanelJobIndex get(Job<?, ?> job, Run<?, ?> lastCompleted, Collection<Run<?, ?>> touched) {
+        XFPanelJobIndex index = of(job);
+        synchronized (index) {
+            int number = lastCompleted != null ? lastCompleted.getNumber() : 0;
+            if (index.lastNumber < number || index.lastNumber == -1 || index.partial) {
+                index.touched = touched;
+                try {
+                    index.fill(job, lastCompleted);
+                } finally {
+                    index.touched = null;
+                }
+                index.save();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Never rebuilds the index, so never loads any build. An index that was never filled knows nothing until
+     * the next build completes: no test counts, no culprits and an empty trend.
+     *
+     * @param job a job
+     * @return the index of the job, as kept up to date by {@link IndexRunListener}
+     */
+    static XFPanelJobIndex peek(Job<?, ?> job) {
+        return of(job);
+    }
+
+    /**
+     * @return the index of the job, as loaded, without bringing it up to date
+     */
+    private static XFPanelJobIndex of(Job<?, ?> job) {
+        synchronized (indexes) {
+            XFPanelJobIndex index = indexes.get(job);
+            if (index == null) {
+                index = load(job);
+                indexes.put(job, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return the index of the job if it has one in memory or on disk, null if the job was never indexed
+     */
+    private static XFPanelJobIndex existing(Job<?, ?> job) {
+        synchronized (indexes) {
+            XFPanelJobIndex index = indexes.get(job);
+            if (index == null) {
+                File root = job.getRootDir();
+                if (root == null || !new File(root, FILE_NAME).exists()) {
+                    return null;
+                }
+                index = load(job);
+                indexes.put(job, index);
+            }
+            return index;
+        }
+    }
+
+    private static XFPanelJobIndex load(Job<?, ?> job) {
+        File root = job.getRootDir();
+        XmlFile file = root != null ? new XmlFile(Jenkins.XSTREAM, new File(root, FILE_NAME)) : null;
+        XFPanelJobIndex index = null;
+        if (file != null && file.exists()) {
+            try {
+                index = (XFPanelJobIndex) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file + ", rebuilding it", e);
+            } catch (ClassCastException e) {
+                LOGGER.log(Level.WARNING, "Unexpected content in " + file + ", rebuilding it", e);
+            }
+        }
+        if (index == null) {
+            index = new XFPanelJobIndex();
+        }
+        index.file = file;
+        return index;
+    }
+
+    private void save() {
+        if (this.file == null) {
+            return;
+        }
+        try {
+            this.file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + this.file, e);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the job's history.
+     */
+    private void fill(Job<?, ?> job, Run<?, ?> lastCompleted) {
+        this.partial = false;
+        this.lastNumber = lastCompleted != null ? lastCompleted.getNumber() : 0;
+        Result result = lastCompleted != null ? lastCompleted.getResult() : null;
+        this.failing = result != null && result.isWorseThan(Result.SUCCESS);
+
+        this.culprits = new ArrayList<String>();
+        if (lastCompleted instanceof AbstractBuild<?, ?>) {
+            Set<User> users = ((AbstractBuild<?, ?>) lastCompleted).getCulprits();
+            if (users != null) {
+                this.culprits = names(users);
+            }
+        }
+
+        Run<?, ?> firstFailed = touch(job.getLastStableBuild());
+        if (firstFailed == null) { // if there aren't any successful builds
+            firstFailed = touch(job.getFirstBuild());
+        } else {
+            firstFailed = touch(firstFailed.getNextBuild());
+        }
+        this.firstFailedCulprits = authors(firstFailed);
+        this.firstFailedNumber = firstFailed != null ? firstFailed.getNumber() : 0;
+        Run<?, ?> lastFailed = touch(job.getLastFailedBuild());
+        this.lastFailedCulprits = authors(lastFailed);
+        this.lastFailedNumber = lastFailed != null ? lastFailed.getNumber() : 0;
+
+        this.testBuilds = new int[0];
+        this.testTotals = new int[0];
+        this.testFailures = new int[0];
+        Run<?, ?> lastSuccessful = touch(job.getLastSuccessfulBuild());
+        if (lastSuccessful != null) {
+            Run<?, ?> previous = getLastSuccessfulFrom(lastSuccessful);
+            if (previous != null) {
+                addTestCounts(previous);
+            }
+            addTestCounts(lastSuccessful);
+        }
+
+        resetTrend();
+        List<Run<?, ?>> recent = new ArrayList<Run<?, ?>>();
+        Run<?, ?> r = lastCompleted;
+        for (; r != null && recent.size() < TREND_SIZE; r = touch(r.getPreviousBuild())) {
+            if (!r.isBuilding()) {
+                recent.add(r);
+            }
+        }
+        boolean recovered = false;
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            addTrend(recent.get(i));
+            Result trendResult = recent.get(i).getResult();
+            recovered |= trendResult != null && !trendResult.isWorseThan(Result.UNSTABLE);
+        }
+        // rather than walking back to where a long red streak started, tell it is at least this long
+        this.redStreakOpen = r != null && this.redStreak > 0 && !recovered;
+    }
+
+    /**
+     * Starts the index from the given completed build, without loading any other build.
+     */
+    private void start(Run<?, ?> run) {
+        this.partial = true;
+        this.lastNumber = run.getNumber();
+        Result result = run.getResult();
+        this.failing = result != null && result.isWorseThan(Result.SUCCESS);
+
+        List<String> authors = authors(run);
+        this.culprits = authors != null ? authors : new ArrayList<String>();
+        this.firstFailedCulprits = result != Result.SUCCESS ? authors : null;
+        this.firstFailedNumber = this.firstFailedCulprits != null ? run.getNumber() : 0;
+        this.lastFailedCulprits = result == Result.FAILURE ? authors : null;
+        this.lastFailedNumber = this.lastFailedCulprits != null ? run.getNumber() : 0;
+
+        this.testBuilds = new int[0];
+        this.testTotals = new int[0];
+        this.testFailures = new int[0];
+        if (result != null && !result.isWorseThan(Result.UNSTABLE)) {
+            addTestCounts(run);
+        }
+
+        resetTrend();
+        addTrend(run);
+        // the builds before aren't known, so neither is where a red streak started
+        this.redStreakOpen = this.redStreak > 0;
+    }
+
+    private void resetTrend() {
+        this.trendResults = new byte[TREND_SIZE];
+        this.trendNumbers = new int[TREND_SIZE];
+        this.trendCompletions = new long[TREND_SIZE];
+        this.trendNext = 0;
+        this.trendCount = 0;
+        this.redStreak = 0;
+        this.firstFailure = 0;
+        this.redStreakOpen = false;
+    }
+
+    private void addTrend(Run<?, ?> run) {
+        Result result = run.getResult();
+        if (result == null) {
+            return;
+        }
+        this.trendResults[this.trendNext] = (byte) result.ordinal;
+        this.trendNumbers[this.trendNext] = run.getNumber();
+        long completion = run.getTimeInMillis() + run.getDuration();
+        this.trendCompletions[this.trendNext] = completion;
+        this.trendNext = (this.trendNext + 1) % TREND_SIZE;
+        this.trendCount = Math.min(this.trendCount + 1, TREND_SIZE);
+
+        if (result == Result.FAILURE) {
+            if (this.redStreak++ == 0) {
+                this.firstFailure = completion;
+            }
+        } else if (!result.isWorseThan(Result.UNSTABLE)) {
+            this.redStreak = 0;
+            this.redStreakOpen = false;
+        }
+    }
+
+    /**
+     * @param run a run
+     * @return the last successful run prior to the given run
+     */
+    private Run<?, ?> getLastSuccessfulFrom(Run<?, ?> run) {
+        Run<?, ?> r = touch(run.getPreviousBuild());
+        while (r != null
+                && (r.isBuilding() || r.getResult() == null || r.getResult()
+                        .isWorseThan(Result.UNSTABLE))) {
+            r = touch(r.getPreviousBuild());
+        }
+        return r;
+    }
+
+    /**
+     * @param run a build looked at while filling the index, may be null
+     * @return the given build
+     */
+    private Run<?, ?> touch(Run<?, ?> run) {
+        if (this.touched != null && run != null) {
+            this.touched.add(run);
+        }
+        return run;
+    }
+
+    private void addTestCounts(Run<?, ?> run) {
+        AbstractTestResultAction<?> tests = run.getAction(AbstractTestResultAction.class);
+        int size = Math.min(this.testBuilds.length + 1, TEST_HISTORY);
+        this.testBuilds = append(this.testBuilds, size, run.getNumber());
+        this.testTotals = append(this.testTotals, size, tests != null ? tests.getTotalCount() : -1);
+        this.testFailures = append(this.testFailures, size, tests != null ? tests.getFailCount() : 0);
+    }
+
+    /**
+     * @return the last <code>size - 1</code> values of the given array, followed by the given value
+     */
+    private static int[] append(int[] values, int size, int value) {
+        int[] appended = new int[size];
+        System.arraycopy(values, values.length - (size - 1), appended, 0, size - 1);
+        appended[size - 1] = value;
+        return appended;
+    }
+
+    /**
+     * Folds a completed build into the index.
+     * @param run the build that completed
+     */
+    private synchronized void record(Run<?, ?> run) {
+        if (this.lastNumber == -1) {
+            // never filled or invalidated: a lightweight view may never fill it, so start from this build
+            start(run);
+            save();
+            return;
+        }
+        if (run.getNumber() <= this.lastNumber) {
+            // older than what is already known
+            return;
+        }
+        Result result = run.getResult();
+        List<String> authors = authors(run);
+        if (authors != null) {
+            if (this.failing) {
+                Set<String> all = new LinkedHashSet<String>(this.culprits);
+                all.addAll(authors);
+                this.culprits = new ArrayList<String>(all);
+            } else {
+                this.culprits = authors;
+            }
+            if (result == Result.SUCCESS) {
+                this.firstFailedCulprits = null;
+                this.firstFailedNumber = 0;
+            } else if (!this.failing || this.firstFailedCulprits == null) {
+                this.firstFailedCulprits = authors;
+                this.firstFailedNumber = run.getNumber();
+            }
+            if (result == Result.FAILURE) {
+                this.lastFailedCulprits = authors;
+                this.lastFailedNumber = run.getNumber();
+            }
+        }
+        if (result != null && !result.isWorseThan(Result.UNSTABLE)) {
+            addTestCounts(run);
+        }
+        addTrend(run);
+        this.failing = result != null && result.isWorseThan(Result.SUCCESS);
+        this.lastNumber = run.getNumber();
+        save();
+    }
+
+    /**
+     * @param number number of a build
+     * @return true if the build is folded into this index: one of the builds of the trend or of the test counts,
+     * or a build culprits are taken from
+     */
+    private synchronized boolean holds(int number) {
+        if (this.lastNumber == -1 || number > this.lastNumber) {
+            return false;
+        }
+        if (number == this.firstFailedNumber || number == this.lastFailedNumber) {
+            return true;
+        }
+        int oldest = this.lastNumber;
+        if (this.trendCount > 0) {
+            oldest = Math.min(oldest, this.trendNumbers[(this.trendNext - this.trendCount + TREND_SIZE) % TREND_SIZE]);
+        }
+        if (this.testBuilds.length > 0) {
+            oldest = Math.min(oldest, this.testBuilds[0]);
+        }
+        return number >= oldest;
+    }
+
+    /**
+     * Makes the index get rebuilt from the history the next time it is used.
+     */
+    private synchronized void invalidate() {
+        this.lastNumber = -1;
+        save();
+    }
+
+    /**
+     * @return the authors of the changes of the given build, null if it isn't a build with changes
+     */
+    private static List<String> authors(Run<?, ?> run) {
+        if (!(run instanceof AbstractBuild<?, ?>)) {
+            return null;
+        }
+        Set<User> users = new LinkedHashSet<User>();
+        Iterable<? extends Entry> changes = ((AbstractBuild<?, ?>) run).getChangeSet();
+        if (changes != null) {
+            for (Entry e : changes) {
+                users.add(e.getAuthor());
+            }
+        }
+        return names(users);
+    }
+
+    private static List<String> names(Collection<User> users) {
+        Set<String> names = new LinkedHashSet<String>();
+        for (User user : users) {
+            names.add(user.getFullName());
+        }
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * @return the number of the last completed build this index knows of
+     */
+    int getLastNumber() {
+        return this.lastNumber;
+    }
+
+    /**
+     * @return true if the last completed build was worse than {@link Result#SUCCESS}
+     */
+    boolean isFailing() {
+        return this.failing;
+    }
+
+    /**
+     * @return names of the authors of the changes since the last successful build
+     */
+    synchronized List<String> getCulprits() {
+        return Collections.unmodifiableList(this.culprits);
+    }
+
+    /**
+     * @return names of the authors of the changes of the first build after the last stable one, null if none
+     */
+    synchronized List<String> getFirstFailedCulprits() {
+        return this.firstFailedCulprits != null ? Collections.unmodifiableList(this.firstFailedCulprits) : null;
+    }
+
+    /**
+     * @return names of the authors of the changes of the last failed build, null if none
+     */
+    synchronized List<String> getLastFailedCulprits() {
+        return this.lastFailedCulprits != null ? Collections.unmodifiableList(this.lastFailedCulprits) : null;
+    }
+
+    /**
+     * @param back 0 for the last successful or unstable build, 1 for the one before, and so on
+     * @return the test counts of that build, null if it isn't known
+     */
+    synchronized TestCounts getTestCounts(int back) {
+        int i = this.testBuilds.length - 1 - back;
+        if (i < 0) {
+            return null;
+        }
+        return new TestCounts(this.testBuilds[i], this.testTotals[i], this.testFailures[i]);
+    }
+
+    /**
+     * @return the health trend over the last {@link #TREND_SIZE} completed builds
+     */
+    synchronized XFPanelTrend getTrend() {
+        byte[] ordered = new byte[this.trendCount];
+        long[] completions = new long[this.trendCount];
+        int first = (this.trendNext - this.trendCount + TREND_SIZE) % TREND_SIZE;
+        for (int i = 0; i < this.trendCount; i++) {
+            ordered[i] = this.trendResults[(first + i) % TREND_SIZE];
+            completions[i] = this.trendCompletions[(first + i) % TREND_SIZE];
+        }
+        return new XFPanelTrend(ordered, completions, this.redStreak, this.firstFailure, this.redStreakOpen);
+    }
+
+    /**
+     * Test counts of a single build.
+     */
+    static final class TestCounts {
+        private final int number;
+        private final int total;
+        private final int failed;
+
+        private TestCounts(int number, int total, int failed) {
+            this.number = number;
+            this.total = total;
+            this.failed = failed;
+        }
+
+        /**
+         * @return the build number
+         */
+        int getNumber() {
+            return this.number;
+        }
+
+        /**
+         * @return false if the build has no test results
+         */
+        boolean hasTests() {
+            return this.total >= 0;
+        }
+
+        int getTotal() {
+            return this.total;
+        }
+
+        int getFailed() {
+            return this.failed;
+        }
+
+        int getPassed() {
+            return this.total - this.failed;
+        }
+    }
+
+    /**
+     * Keeps the indexes of all jobs up to date.
+     */
+    @Extension
+    public static final class IndexRunListener extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> r, TaskListener listener) {
+            // jobs that aren't on any panel don't get an index
+            XFPanelJobIndex index = existing(r.getParent());
+            if (index != null) {
+                index.record(r);
+            }
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> r) {
+            // deleting old builds, as log rotation does, leaves what the index holds untouched
+            XFPanelJobIndex index = existing(r.getParent());
+            if (index != null && index.holds(r.getNumber())) {
+                index.invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the jobs of an item group lazily, in the order the group keeps them.
+ *
+ * Unlike <code>Jenkins.getAllItems(Job.class)</code>, nothing is collected into a list, so callers that only need
+ * a page of jobs stop walking once they have it. Folders aren't descended into: a view only holds the items of its
+ * own group, and selects them by their name, so jobs inside folders couldn't be selected. Items the current user
+ * can't read are skipped.
+ */
+final class XFPanelJobStream implements Iterator<Job<?, ?>> {
+
+    private final Iterator<? extends Item> items;
+    private final String prefix;
+    private Job<?, ?> next;
+
+    /**
+     * C'tor
+     * @param root the item group to walk
+     * @param prefix start of the names of the jobs to return, ignoring case; null or empty for all jobs
+     */
+    XFPanelJobStream(ItemGroup<? extends Item> root, String prefix) {
+        this.prefix = prefix != null ? prefix.toLowerCase(Locale.ENGLISH) : "";
+        this.items = root != null ? root.getItems().iterator() : null;
+    }
+
+    public boolean hasNext() {
+        while (this.next == null && this.items != null && this.items.hasNext()) {
+            Item item = this.items.next();
+            if (item instanceof Job<?, ?> && item.hasPermission(Item.READ)
+                    && item.getName().toLowerCase(Locale.ENGLISH).startsWith(this.prefix)) {
+                this.next = (Job<?, ?>) item;
+            }
+        }
+        return this.next != null;
+    }
+
+    public Job<?, ?> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Job<?, ?> job = this.next;
+        this.next = null;
+        return job;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,143 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Executor;
+import hudson.model.Run;
+
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * The panel of a view as JSON, for <code>xfp.js</code> to render on the client.
+ *
+ * The view's settings and stylesheet are sent once, followed by what each entry shows. Fields that are false,
+ * empty or don't apply to an entry are left out to keep the payload small.
+ */
+final class XFPanelJson {
+
+    private XFPanelJson() {
+    }
+
+    /**
+     * @param view the view
+     * @param entries the entries to send, in display order
+     * @param version identifies what the panel shows, see {@link XFPanelView#getFingerprint}
+     * @param rootURL the root URL of Jenkins, as seen by the client
+     * @return the panel as JSON
+     */
+    static JSONObject toJson(XFPanelView view, List<XFPanelEntry> entries, String version, String rootURL) {
+        JSONObject panel = new JSONObject();
+        panel.put("version", version);
+        panel.put("rootUrl", rootURL);
+        panel.put("view", settings(view));
+        panel.put("stylesheet", view.getStylesheet());
+        JSONArray jobs = new JSONArray();
+        for (XFPanelEntry entry : entries) {
+            jobs.add(entry(view, entry));
+        }
+        panel.put("jobs", jobs);
+        return panel;
+    }
+
+    private static JSONObject settings(XFPanelView view) {
+        JSONObject settings = new JSONObject();
+        settings.put("showClaimInfo", isTrue(view.getShowClaimInfo()));
+        settings.put("showClaimInfoInUnstable", isTrue(view.getShowClaimInfoInUnstable()));
+        settings.put("showWarningIcon", isTrue(view.getShowWarningIcon()));
+        settings.put("claimPluginInstalled", isTrue(view.getIsClaimPluginInstalled()));
+        settings.put("replaceNumberOfTestCases", isTrue(view.getReplaceNumberOfTestCases()));
+        settings.put("replaceResponsibles", isTrue(view.getReplaceResponsibles()));
+        settings.put("responsiblesTopic", view.getResponsiblesTopic());
+        settings.put("showTimeStamp", isTrue(view.getShowTimeStamp()));
+        settings.put("lastBuildTimePreFix", view.getLastBuildTimePreFix());
+        settings.put("showZeroTestCounts", isTrue(view.getShowZeroTestCounts()));
+        settings.put("showBrokenBuildCount", isTrue(view.getShowBrokenBuildCount()));
+        settings.put("showTrend", isTrue(view.getShowTrend()));
+        return settings;
+    }
+
+    /**
+     * @param view the view of the entry
+     * @param entry an entry
+     * @return what the tile of the entry shows
+     */
+    static JSONObject entry(XFPanelView view, XFPanelEntry entry) {
+        JSONObject job = new JSONObject();
+        job.put("name", entry.getName());
+        job.put("fullName", entry.getJob().getFullName());
+        job.put("url", entry.getUrl());
+        job.put("status", entry.getStatusClass());
+        putIf(job, "broken", isTrue(entry.getBroken()));
+        putIf(job, "building", isTrue(entry.getBuilding()));
+        putIf(job, "stale", entry.isStale());
+        putIf(job, "successful", entry.isBuildSuccessful());
+        putIf(job, "unstable", entry.isBuildUnstable());
+        job.put("testCount", entry.getTestCount());
+        job.put("failCount", entry.getFailCount());
+        job.put("successCount", entry.getSuccessCount());
+        job.put("successPercentage", entry.getSuccessPercentage());
+        job.put("numberOfTests", entry.getNumberOfTests());
+        if (entry.getDiff() != null && entry.getDiff().length() > 0) {
+            job.put("diff", entry.getDiff());
+            job.put("diffColor", entry.getDiffColor());
+        }
+        putIf(job, "completion", entry.getCompletionTimestampString());
+        if (isTrue(entry.getBroken())) {
+            job.put("failedBuilds", entry.getNumberOfFailedBuilds());
+            putIf(job, "showResponsibles", isTrue(entry.getShowResponsibles()));
+            putIf(job, "culprits", entry.getCulprits());
+        }
+        if (entry.isClaimed()) {
+            job.put("claimed", true);
+            putIf(job, "claimInfo", entry.getClaimInfo());
+        }
+        putIf(job, "claimInfoByTestCases", entry.getClaimInfoByTestCases());
+        if (isTrue(entry.getQueued())) {
+            job.put("queueNumber", entry.getQueueNumber());
+        }
+        if (isTrue(entry.getBuilding())) {
+            JSONArray builds = new JSONArray();
+            for (Run<?, ?> run : entry.getBuildsInProgress()) {
+                Executor executor = run.getExecutor();
+                JSONObject build = new JSONObject();
+                build.put("name", run.getDisplayName());
+                build.put("progress", executor != null ? executor.getProgress() : -1);
+                putIf(build, "stuck", executor != null && executor.isLikelyStuck());
+                builds.add(build);
+            }
+            job.put("builds", builds);
+        }
+        if (isTrue(view.getShowTrend())) {
+            XFPanelTrend trend = entry.getTrend();
+            JSONObject json = new JSONObject();
+            json.put("classes", entry.getTrendClasses());
+            json.put("buildCount", trend.getBuildCount());
+            json.put("failureRate", trend.getFailureRate());
+            if (trend.getRedStreak() > 0) {
+                json.put("redStreak", trend.getRedStreak());
+                json.put("redStreakLabel", trend.getRedStreakLabel());
+                json.put("timeSinceFirstFailure", trend.getTimeSinceFirstFailure());
+            }
+            putIf(json, "meanTimeToRecovery", trend.getMeanTimeToRecovery());
+            job.put("trend", json);
+        }
+        return job;
+    }
+
+    private static void putIf(JSONObject json, String key, boolean value) {
+        if (value) {
+            json.put(key, true);
+        }
+    }
+
+    private static void putIf(JSONObject json, String key, String value) {
+        if (value != null && value.length() > 0) {
+            json.put(key, value);
+        }
+    }
+
+    private static boolean isTrue(Boolean value) {
+        return Boolean.TRUE.equals(value);
+    }
+}
@@ -0,0 +1,261 @@
+package maps.hudson.plugin.xfpanel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Timings of the phases of a panel refresh, cache hit rates and pollers of a view, served by
+ * {@link XFPanelView#doMetrics}.
+ *
+ * Each phase keeps a count, a total and its last {@link #SAMPLES} durations for percentiles. Phases nest:
+ * {@link Phase#INIT} includes the build, test, queue, claim and culprit lookups of an entry, and {@link Phase#SORT}
+ * includes resolving the jobs of the view for the configured order.
+ */
+public final class XFPanelMetrics {
+
+    /**
+     * Phases of a refresh.
+     */
+    public enum Phase {
+        /** looking up the queue position of a job */
+        QUEUE_SCAN("queueScan"),
+        /** resolving the jobs of the view, see {@link XFPanelView#getItems()} */
+        ITEMS("items"),
+        /** {@link XFPanelEntry#init()} of a single entry */
+        INIT("init"),
+        /** resolving the last builds and the builds in progress of a job */
+        BUILDS("builds"),
+        /** test counts, diff and trend of a job, from its {@link XFPanelJobIndex} */
+        TESTS("tests"),
+        /** ordering the entries of a snapshot */
+        SORT("sort"),
+        /** looking up the claims of a job's last build */
+        CLAIMS("claims"),
+        /** resolving the responsibles of a job */
+        CULPRITS("culprits"),
+        /** rendering a panel, delta or JSON response */
+        RENDER("render");
+
+        private final String key;
+
+        private Phase(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return the name of the phase in the JSON of the metrics
+         */
+        public String getKey() {
+            return this.key;
+        }
+    }
+
+    /**
+     * Number of recent durations kept per phase.
+     */
+    static final int SAMPLES = 1024;
+
+    /**
+     * Pollers not seen for this long, in milliseconds, are forgotten.
+     */
+    static final long POLLER_RETENTION = 10 * 60 * 1000;
+
+    private final Timings[] timings;
+    private final AtomicLong snapshotHits = new AtomicLong();
+    private final AtomicLong snapshotMisses = new AtomicLong();
+    private final Map<String, Long> pollers = new HashMap<String, Long>();
+    private final AtomicInteger streams = new AtomicInteger();
+
+    /**
+     * Event streams open on all views; each of them holds a request thread. Only reported.
+     */
+    private static final AtomicInteger allStreams = new AtomicInteger();
+
+    /**
+     * C'tor
+     */
+    public XFPanelMetrics() {
+        this.timings = new Timings[Phase.values().length];
+        for (int i = 0; i < this.timings.length; i++) {
+            this.timings[i] = new Timings();
+        }
+    }
+
+    /**
+     * @param phase the phase
+     * @param start when the phase started, as returned by {@link System#nanoTime()}
+     */
+    public void record(Phase phase, long start) {
+        add(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * @param phase the phase
+     * @param nanos how long the phase took, in nanoseconds
+     */
+    public void add(Phase phase, long nanos) {
+        this.timings[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * @param reused true if a snapshot was reused, false if it had to be computed
+     */
+    void snapshot(boolean reused) {
+        (reused ? this.snapshotHits : this.snapshotMisses).incrementAndGet();
+    }
+
+    /**
+     * Records a request of a panel.
+     *
+     * @param client identifies the polling browser
+     */
+    void poll(String client) {
+        long now = System.currentTimeMillis();
+        synchronized (this.pollers) {
+            this.pollers.put(client, now);
+            if (this.pollers.size() > 256) {
+                prune(now - POLLER_RETENTION);
+            }
+        }
+    }
+
+    /**
+     * Counts an event stream about to open, unless too many are open already. A stream that was opened
+     * must be closed with {@link #closeStream()}.
+     *
+     * @param limit the number of event streams that may be open on this view
+     * @return true if the stream may open, false if it must not
+     */
+    boolean openStream(int limit) {
+        if (this.streams.incrementAndGet() > limit) {
+            this.streams.decrementAndGet();
+            return false;
+        }
+        allStreams.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Counts an event stream opened by {@link #openStream(int)} as closed.
+     */
+    void closeStream() {
+        this.streams.decrementAndGet();
+        allStreams.decrementAndGet();
+    }
+
+    /**
+     * @param window how long ago, in milliseconds, a poller must have been seen to count as active
+     * @return the number of browsers that polled the panel in the given window
+     */
+    public int getActivePollers(long window) {
+        long since = System.currentTimeMillis() - window;
+        int active = 0;
+        synchronized (this.pollers) {
+            for (Long seen : this.pollers.values()) {
+                if (seen >= since) {
+                    active++;
+                }
+            }
+        }
+        return active;
+    }
+
+    private void prune(long before) {
+        for (Iterator<Long> it = this.pollers.values().iterator(); it.hasNext();) {
+            if (it.next() < before) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param pollerWindow see {@link #getActivePollers(long)}
+     * @param tiles the tile cache of the view
+     * @return the metrics as JSON
+     */
+    public JSONObject toJson(long pollerWindow, XFPanelTileCache tiles) {
+        JSONObject phases = new JSONObject();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.getKey(), this.timings[phase.ordinal()].toJson());
+        }
+        JSONObject caches = new JSONObject();
+        caches.put("snapshots", cache(this.snapshotHits.get(), this.snapshotMisses.get()));
+        JSONObject tileCache = cache(tiles.getHits(), tiles.getMisses());
+        tileCache.put("size", tiles.getSize());
+        caches.put("tiles", tileCache);
+        JSONObject pollers = new JSONObject();
+        pollers.put("active", getActivePollers(pollerWindow));
+        pollers.put("windowSeconds", pollerWindow / 1000);
+        pollers.put("streams", this.streams.get());
+        pollers.put("allStreams", allStreams.get());
+
+        JSONObject json = new JSONObject();
+        json.put("phases", phases);
+        json.put("caches", caches);
+        json.put("pollers", pollers);
+        return json;
+    }
+
+    private static JSONObject cache(long hits, long misses) {
+        JSONObject json = new JSONObject();
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("hitRate", hits + misses > 0 ? hits / (double) (hits + misses) : 0D);
+        return json;
+    }
+
+    /**
+     * Durations of a single phase.
+     */
+    static final class Timings {
+
+        private final long[] samples = new long[SAMPLES];
+        private long count;
+        private long total;
+        private long max;
+
+        synchronized void add(long nanos) {
+            this.samples[(int) (this.count % SAMPLES)] = nanos;
+            this.count++;
+            this.total += nanos;
+            this.max = Math.max(this.max, nanos);
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         * @return the given percentile of the recent durations, in nanoseconds
+         */
+        synchronized long getPercentile(int percentile) {
+            int size = (int) Math.min(this.count, SAMPLES);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(this.samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100D * size) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        synchronized JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("count", this.count);
+            json.put("totalMillis", millis(this.total));
+            json.put("meanMillis", this.count > 0 ? millis(this.total / this.count) : 0D);
+            json.put("p50Millis", millis(getPercentile(50)));
+            json.put("p95Millis", millis(getPercentile(95)));
+            json.put("p99Millis", millis(getPercentile(99)));
+            json.put("maxMillis", millis(this.max));
+            return json;
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1000L / 1000D;
+        }
+    }
+}
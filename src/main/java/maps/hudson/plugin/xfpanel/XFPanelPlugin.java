@@ -12,4 +12,14 @@ public class XFPanelPlugin extends Plugin {
     @Override
     public void start() throws Exception {
     }
+
+    /**
+     * Stops the threads shared by all views.
+     */
+    @Override
+    public void stop() throws Exception {
+        XFPanelRefresher.shutdown();
+        XFPanelEntryLoader.shutdown();
+        XFPanelQueueIndex.shutdown();
+    }
 }
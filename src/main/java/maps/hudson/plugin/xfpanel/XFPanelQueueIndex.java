@@ -0,0 +1,222 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Item;
+import hudson.model.Queue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Position of each job in the build queue, shared by every view, maintained from queue events.
+ *
+ * A build starting takes its job out of the index and moves the jobs behind it up, without looking at the queue.
+ * Jenkins 1.475 has no listener for a task once it is in the queue: {@link XFPanelChangeTracker.QueueChangeListener}
+ * learns about a task before it is added, and neither its place nor cancelled items are reported. So a task being
+ * scheduled only marks its job as pending, and the queue is scanned {@link #SCAN_DELAY} later, once for all tasks
+ * scheduled in the meantime. A scan that still misses a pending job tries again, for up to {@link #MAX_AGE}.
+ * Readers rescan once the index is older than {@link #MAX_AGE}, for what no event reports. This bounds scans to one
+ * per {@link #SCAN_DELAY} while tasks are being scheduled and one per {@link #MAX_AGE} otherwise, however many
+ * builds start or finish.
+ *
+ * Scans and updates take turns, so neither loses the other's changes. Readers never block; they get the last
+ * published, immutable index. Whenever a scan finds the positions changed, the {@link XFPanelChangeTracker}
+ * generation is moved on, so panels pick up a task only once it is in the queue. Only job names are kept, so
+ * queue items aren't held on to between renders.
+ */
+final class XFPanelQueueIndex {
+
+    /**
+     * Upper bound for the age of the index, in milliseconds.
+     */
+    static final long MAX_AGE = 5000;
+
+    /**
+     * Time from a task being scheduled to the queue being scanned for it, in milliseconds.
+     */
+    static final long SCAN_DELAY = 1000;
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "XFPanel queue index");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static volatile XFPanelQueueIndex current = new XFPanelQueueIndex(0, 0, Collections.<String, Integer>emptyMap());
+
+    /**
+     * Full names of the jobs scheduled but not seen in the queue yet, with the time they were scheduled.
+     */
+    private static final Map<String, Long> pending = new HashMap<String, Long>();
+    private static boolean scanScheduled;
+
+    private final long version;
+    private final long timestamp;
+    private final Map<String, Integer> positions;
+
+    private XFPanelQueueIndex(long version, long timestamp, Map<String, Integer> positions) {
+        this.version = version;
+        this.timestamp = timestamp;
+        this.positions = positions;
+    }
+
+    /**
+     * @return an index no older than {@link #MAX_AGE}
+     */
+    static XFPanelQueueIndex get() {
+        XFPanelQueueIndex index = current;
+        // while another thread scans, its result will do
+        if (System.currentTimeMillis() - index.timestamp >= MAX_AGE && lock.tryLock()) {
+            try {
+                index = scan();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Called before a task is added to the queue.
+     *
+     * @param task the task being scheduled
+     */
+    static void scheduled(Queue.Task task) {
+        if (!(task instanceof Item)) {
+            return;
+        }
+        synchronized (pending) {
+            pending.put(((Item) task).getFullName(), System.currentTimeMillis());
+            scheduleScan();
+        }
+    }
+
+    /**
+     * Called when a build of a job started, which took one of its items out of the queue.
+     *
+     * @param fullName full name of the job
+     */
+    static void left(String fullName) {
+        synchronized (pending) {
+            pending.remove(fullName);
+        }
+        lock.lock();
+        try {
+            XFPanelQueueIndex index = current;
+            Integer position = index.positions.get(fullName);
+            if (position == null) {
+                return;
+            }
+            Map<String, Integer> positions = new HashMap<String, Integer>(index.positions.size());
+            for (Map.Entry<String, Integer> entry : index.positions.entrySet()) {
+                int p = entry.getValue();
+                if (p != position) {
+                    positions.put(entry.getKey(), p > position ? p - 1 : p);
+                }
+            }
+            // the start of the build moves the generation on already
+            current = new XFPanelQueueIndex(index.version + 1, index.timestamp, Collections.unmodifiableMap(positions));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the thread scanning the queue.
+     */
+    static void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void scheduleScan() {
+        if (!scanScheduled && !executor.isShutdown()) {
+            scanScheduled = true;
+            executor.schedule(new Runnable() {
+                public void run() {
+                    synchronized (pending) {
+                        scanScheduled = false;
+                    }
+                    lock.lock();
+                    try {
+                        scan();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }, SCAN_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Scans the queue and publishes the result; the caller holds {@link #lock}.
+     */
+    private static XFPanelQueueIndex scan() {
+        long timestamp = System.currentTimeMillis();
+        Map<String, Integer> positions = new HashMap<String, Integer>();
+        Jenkins jenkins = Jenkins.getInstance();
+        Queue queue = jenkins != null ? jenkins.getQueue() : null;
+        if (queue != null) {
+            int position = 1;
+            for (Queue.Item item : queue.getItems()) {
+                Queue.Task task = item.task;
+                if (task instanceof Item) {
+                    String name = ((Item) task).getFullName();
+                    if (!positions.containsKey(name)) {
+                        positions.put(name, position);
+                    }
+                }
+                position++;
+            }
+        }
+
+        synchronized (pending) {
+            Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> entry = it.next();
+                // not seen for that long, another QueueDecisionHandler vetoed it
+                if (positions.containsKey(entry.getKey()) || timestamp - entry.getValue() >= MAX_AGE) {
+                    it.remove();
+                }
+            }
+            if (!pending.isEmpty()) {
+                scheduleScan();
+            }
+        }
+
+        XFPanelQueueIndex last = current;
+        boolean changed = !last.positions.equals(positions);
+        XFPanelQueueIndex index = new XFPanelQueueIndex(changed ? last.version + 1 : last.version, timestamp,
+                Collections.unmodifiableMap(positions));
+        current = index;
+        if (changed) {
+            XFPanelChangeTracker.changed();
+        }
+        return index;
+    }
+
+    /**
+     * @return changes whenever the positions change
+     */
+    long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @param fullName full name of a job
+     * @return the 1-based position of the job's first queue item, or null if the job isn't queued
+     */
+    Integer getPosition(String fullName) {
+        return this.positions.get(fullName);
+    }
+}
@@ -0,0 +1,78 @@
+package maps.hudson.plugin.xfpanel;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recomputes the panel of a view on a fixed cadence, off the request threads.
+ *
+ * All views share a single daemon thread, so at most one panel is computed at any time no matter how many
+ * screens are open. A refresher only holds on to its view weakly, and stops once the view is gone.
+ */
+final class XFPanelRefresher implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(XFPanelRefresher.class.getName());
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "XFPanel background refresher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final WeakReference<XFPanelView> view;
+    private volatile ScheduledFuture<?> future;
+
+    private XFPanelRefresher(XFPanelView view) {
+        this.view = new WeakReference<XFPanelView>(view);
+    }
+
+    /**
+     * @param view the view to refresh
+     * @param period time between two refreshes, in milliseconds
+     * @return the started refresher
+     */
+    static XFPanelRefresher start(XFPanelView view, long period) {
+        XFPanelRefresher refresher = new XFPanelRefresher(view);
+        refresher.future = executor.scheduleWithFixedDelay(refresher, 0, period, TimeUnit.MILLISECONDS);
+        return refresher;
+    }
+
+    /**
+     * Stops the thread of all refreshers, interrupting a refresh in progress.
+     */
+    static void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Stops refreshing. A refresh in progress is completed.
+     */
+    void stop() {
+        ScheduledFuture<?> f = this.future;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    public void run() {
+        XFPanelView v = this.view.get();
+        if (v == null || !v.isRegistered()) {
+            stop();
+            return;
+        }
+        try {
+            v.refreshInBackground();
+        } catch (RuntimeException e) {
+            // keep going, a failing refresh must not cancel the schedule
+            LOGGER.log(Level.WARNING, "Failed to refresh view " + v.getViewName(), e);
+        }
+    }
+}
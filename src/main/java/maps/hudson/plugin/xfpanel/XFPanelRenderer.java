@@ -0,0 +1,269 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Executor;
+import hudson.model.Run;
+
+/**
+ * Writes the tile of an entry in plain Java, as <code>job.jelly</code> and the pages it includes do.
+ *
+ * Used instead of the Jelly templates when {@link XFPanelView#getFastRenderer()} is on. Like the templates, it
+ * only refers to classes styled by {@link XFPanelStylesheet} and escapes text. Both have to be kept in sync by
+ * hand; <code>XFPanelTemplateTest</code> renders the same entries both ways and compares the markup.
+ */
+final class XFPanelRenderer {
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(4096);
+        }
+    };
+
+    private final XFPanelView view;
+    private final String rootURL;
+
+    /**
+     * C'tor
+     * @param view the view the tiles belong to
+     * @param rootURL the root URL of Jenkins, as seen by the client
+     */
+    XFPanelRenderer(XFPanelView view, String rootURL) {
+        this.view = view;
+        this.rootURL = rootURL;
+    }
+
+    /**
+     * @param job the entry to render
+     * @return the markup of its tile
+     */
+    String render(XFPanelEntry job) {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        writeTile(out, job);
+        return out.toString();
+    }
+
+    private void writeTile(StringBuilder out, XFPanelEntry job) {
+        boolean broken = Boolean.TRUE.equals(job.getBroken());
+
+        out.append("<a href=\"").append(attr(this.rootURL)).append('/').append(attr(job.getUrl()))
+                .append("\" class=\"xfp-tile\" job=\"").append(attr(job.getJob().getFullName())).append("\">");
+        out.append("<div class=\"xfp-box xfp-").append(attr(job.getStatusClass()))
+                .append("\" tooltip=\"").append(attr(job.getName())).append("\">");
+
+        // right side bar
+        out.append(job.getFailCount() > 0 ? "<div class=\"xfp-right xfp-failing\">" : "<div class=\"xfp-right\">");
+        if (broken) {
+            if (isTrue(this.view.getShowClaimInfo())) {
+                boolean claimed = job.isClaimed();
+                if (!claimed && isTrue(this.view.getShowWarningIcon())) {
+                    writeImage(out, "caution.png");
+                }
+                if (claimed) {
+                    writeImage(out, "claimed.png");
+                }
+            } else if (isTrue(this.view.getShowWarningIcon())) {
+                writeImage(out, "caution.png");
+            }
+        } else if (isTrue(this.view.getIsClaimPluginInstalled()) && isTrue(this.view.getReplaceNumberOfTestCases())) {
+            // isClaimed is true if the whole build is claimed, test cases aren't checked
+            if (job.isClaimed()) {
+                writeImage(out, "claimed.png");
+            } else {
+                out.append(text(job.getNumberOfTests()));
+                if (!job.isBuildSuccessful()) {
+                    out.append("<div class=\"xfp-unclaimed\">#of unclaimed</div>");
+                }
+            }
+        } else {
+            out.append(text(job.getNumberOfTests()));
+        }
+        out.append("<br/></div>");
+
+        // left side bar
+        out.append("<div class=\"xfp-left\"><div class=\"fadeHiddenText xfp-name\"><span><u>")
+                .append(text(job.getName())).append("</u></span>");
+        if (job.isStale()) {
+            out.append("<span title=\"Still computing, showing the previous state\"> (stale)</span>");
+        }
+        out.append("</div>");
+
+        out.append("<div>");
+        if (Boolean.FALSE.equals(job.getBuilding())) {
+            out.append("<div class=\"fadeHiddenText xfp-info\">");
+            writeNotBuilding(out, job, broken);
+            out.append("</div>");
+        } else if (Boolean.TRUE.equals(job.getBuilding())) {
+            out.append("<div class=\"fadeHiddenText xfp-build\">");
+            writeBuilding(out, job);
+            out.append("</div>");
+        }
+        if (isTrue(this.view.getShowBrokenBuildCount()) && broken) {
+            out.append("<div><BLOCKQUOTE><i>").append(job.getNumberOfFailedBuilds())
+                    .append(" failed build(s) since last successful build</i></BLOCKQUOTE></div>");
+        }
+        if (isTrue(this.view.getShowTrend())) {
+            writeTrend(out, job);
+        }
+        out.append("</div></div></div></a>");
+    }
+
+    private void writeNotBuilding(StringBuilder out, XFPanelEntry job, boolean broken) {
+        String timestamp = job.getCompletionTimestampString();
+        boolean showTimeStamp = isTrue(this.view.getShowTimeStamp());
+        if (broken) {
+            boolean claimed = job.isClaimed();
+            boolean showResponsibles = isTrue(job.getShowResponsibles());
+            boolean normalClaim = !(showResponsibles && isTrue(this.view.getReplaceResponsibles())
+                    && isTrue(this.view.getShowClaimInfo()));
+            if (normalClaim) {
+                if (showResponsibles) {
+                    out.append("<div class=\"xfp-line\">");
+                    writeResponsibles(out, job);
+                    out.append("</div>");
+                }
+                if (isTrue(this.view.getShowClaimInfo())) {
+                    out.append("<div class=\"xfp-claim\">");
+                    if (claimed) {
+                        out.append("Claimed by: ").append(text(job.getClaimInfo()));
+                    }
+                    out.append("</div>");
+                }
+            } else if (claimed) {
+                out.append("<div class=\"xfp-claim\">Claimed by: ").append(text(job.getClaimInfo())).append("</div>");
+            } else {
+                out.append("<div class=\"xfp-line\">");
+                writeResponsibles(out, job);
+                out.append("</div>");
+            }
+
+            if (showTimeStamp) {
+                out.append("<div>");
+                if (timestamp.length() > 0) {
+                    out.append("Built ").append(text(timestamp)).append(" ago");
+                } else {
+                    out.append(text(this.view.getLastBuildTimePreFix())).append(" -");
+                }
+                out.append("</div>");
+            }
+            return;
+        }
+
+        boolean queued = Boolean.TRUE.equals(job.getQueued());
+        out.append("<div>");
+        if (isTrue(this.view.getShowZeroTestCounts()) || job.getTestCount() > 0) {
+            out.append(text(job.getSuccessPercentage())).append(' ')
+                    .append(job.getSuccessCount()).append('/').append(job.getTestCount());
+        }
+        if (!"".equals(job.getDiff())) {
+            out.append("(<font color=\"").append(attr(job.getDiffColor())).append("\">")
+                    .append(text(job.getDiff())).append("</font>)");
+        }
+        if (queued) {
+            out.append("<span class=\"xfp-queued\">Queued: #").append(job.getQueueNumber()).append("</span>");
+        }
+        out.append("</div>");
+
+        if (!queued && showTimeStamp) {
+            out.append("<div>").append(text(this.view.getLastBuildTimePreFix())).append(' ').append(text(timestamp));
+            if (timestamp.length() > 0) {
+                out.append(" ago");
+            }
+            out.append("</div>");
+        }
+        if (isTrue(this.view.getShowClaimInfoInUnstable())) {
+            out.append("<div class=\"xfp-claim\">").append(text(job.getClaimInfoByTestCases())).append("</div>");
+        }
+    }
+
+    private void writeBuilding(StringBuilder out, XFPanelEntry job) {
+        for (Run<?, ?> run : job.getBuildsInProgress()) {
+            Executor executor = run.getExecutor();
+            int progress = executor != null ? executor.getProgress() : -1;
+            out.append("<div class=\"xfp-run\"><span class=\"xfp-label\">BUILD ").append(text(run.getDisplayName()))
+                    .append(' ').append(progress).append("%</span>");
+            out.append("<span class=\"xfp-bar\"><table class=\"progress-bar ")
+                    .append(executor != null && executor.isLikelyStuck() ? "red" : "")
+                    .append("\"><tbody><tr>");
+            if (progress < 0) {
+                out.append("<td class=\"progress-bar-left\" style=\"width:100%;\"></td>");
+            } else {
+                out.append("<td class=\"progress-bar-done\" style=\"width:").append(progress).append("%;\"></td>");
+                out.append("<td class=\"progress-bar-left\" style=\"width:").append(100 - progress).append("%;\"></td>");
+            }
+            out.append("</tr></tbody></table></span></div>");
+        }
+
+        if (job.isBuildUnstable() && isTrue(this.view.getShowClaimInfoInUnstable())) {
+            out.append("<div class=\"xfp-claim\">").append(text(job.getClaimInfoByTestCases())).append("</div>");
+        }
+    }
+
+    private void writeTrend(StringBuilder out, XFPanelEntry job) {
+        out.append("<div class=\"xfp-trend\"><span class=\"xfp-bars\">");
+        for (String trendClass : job.getTrendClasses()) {
+            out.append("<span class=\"").append(attr(trendClass)).append("\"></span>");
+        }
+        out.append("</span>");
+        XFPanelTrend trend = job.getTrend();
+        if (trend.getBuildCount() > 0) {
+            out.append("fail ").append(text(trend.getFailureRate()));
+        }
+        if (trend.getRedStreak() > 0) {
+            out.append(", red for ").append(text(trend.getTimeSinceFirstFailure()))
+                    .append(" (").append(text(trend.getRedStreakLabel())).append(')');
+        }
+        if (trend.getMeanTimeToRecovery().length() > 0) {
+            out.append(", MTTR ").append(text(trend.getMeanTimeToRecovery()));
+        }
+        out.append("</div>");
+    }
+
+    private void writeResponsibles(StringBuilder out, XFPanelEntry job) {
+        out.append(text(this.view.getResponsiblesTopic())).append(' ').append(text(job.getCulprits()));
+    }
+
+    private void writeImage(StringBuilder out, String image) {
+        out.append("<img src=\"").append(attr(this.rootURL)).append("/plugin/xfpanel/").append(image)
+                .append("\" class=\"imgBestFit\"/>");
+    }
+
+    private static boolean isTrue(Boolean value) {
+        return Boolean.TRUE.equals(value);
+    }
+
+    /**
+     * @param value text to write, may be null
+     * @return the text with markup characters escaped
+     */
+    static String text(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+
+    /**
+     * @param value attribute value to write, may be null
+     * @return the value with markup characters and quotes escaped
+     */
+    static String attr(String value) {
+        String escaped = text(value);
+        return escaped.indexOf('"') < 0 ? escaped : escaped.replace("\"", "&quot;");
+    }
+}
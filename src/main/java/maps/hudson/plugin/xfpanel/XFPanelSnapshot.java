@@ -0,0 +1,174 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.model.Job;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, sorted list of {@link XFPanelEntry} instances shared by every screen polling a view.
+ *
+ * A view keeps one snapshot of all of its jobs, and each request {@link #filter filters} it by what its user may
+ * see, so screens of users who see different jobs share it too. A snapshot stays valid until
+ * {@link XFPanelChangeTracker} reports a change, {@link XFPanelQueueIndex} finds the queue changed, or it gets
+ * older than {@link #MAX_AGE}. Stale entries of slow jobs don't make it invalid: they are swapped for their
+ * computed entries {@link #withEntries one by one}, as those get done.
+ */
+public final class XFPanelSnapshot {
+
+    /**
+     * Upper bound for the age of a snapshot, in milliseconds. Covers changes no listener reports.
+     */
+    static final long MAX_AGE = 30000;
+
+    private final long generation;
+    private final long queueVersion;
+    private final long timestamp;
+    private final List<Job<?, ?>> jobs;
+    private final List<XFPanelEntry> entries;
+    private final String fingerprint;
+    private final boolean building;
+    private final boolean stale;
+
+    /**
+     * C'tor
+     * @param generation the {@link XFPanelChangeTracker} generation the entries were computed for
+     * @param queueVersion the {@link XFPanelQueueIndex#getVersion() version} of the queue index the entries were
+     *        computed with
+     * @param jobs the jobs the entries were computed from
+     * @param entries the sorted entries
+     */
+    XFPanelSnapshot(long generation, long queueVersion, Collection<Job<?, ?>> jobs, List<XFPanelEntry> entries) {
+        this(generation, queueVersion, System.currentTimeMillis(), jobs, entries);
+    }
+
+    private XFPanelSnapshot(long generation, long queueVersion, long timestamp, Collection<Job<?, ?>> jobs,
+            List<XFPanelEntry> entries) {
+        this.generation = generation;
+        this.queueVersion = queueVersion;
+        this.timestamp = timestamp;
+        this.jobs = new ArrayList<Job<?, ?>>(jobs);
+        this.entries = Collections.unmodifiableList(new ArrayList<XFPanelEntry>(entries));
+
+        // 64 bit FNV-1a over the entries' state, in display order
+        long hash = 0xcbf29ce484222325L;
+        boolean anyBuilding = false;
+        boolean anyStale = false;
+        for (XFPanelEntry entry : this.entries) {
+            String key = entry.getStateKey();
+            for (int i = 0; i < key.length(); i++) {
+                hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ '\n') * 0x100000001b3L;
+            anyBuilding |= Boolean.TRUE.equals(entry.getBuilding());
+            anyStale |= entry.isStale();
+        }
+        this.fingerprint = Long.toHexString(hash);
+        this.building = anyBuilding;
+        this.stale = anyStale;
+    }
+
+    /**
+     * @return the generation this snapshot was built for
+     */
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * @return when this snapshot was built
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return the sorted entries
+     */
+    public List<XFPanelEntry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * @return a hash of the state of all entries, in display order
+     */
+    public String getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * @return true if any entry was building when this snapshot was taken
+     */
+    public boolean isBuilding() {
+        return this.building;
+    }
+
+    /**
+     * @return true if any entry was taken over from an earlier snapshot because computing it took too long
+     */
+    public boolean isStale() {
+        return this.stale;
+    }
+
+    /**
+     * Checks the queue as well, since tasks are only found in it some time after they were scheduled.
+     *
+     * @return true if nothing changed since this snapshot was built
+     */
+    boolean isCurrent() {
+        return this.queueVersion == XFPanelQueueIndex.get().getVersion()
+                && this.generation == XFPanelChangeTracker.getGeneration()
+                && System.currentTimeMillis() - this.timestamp < MAX_AGE;
+    }
+
+    /**
+     * @return the jobs the entries were computed from
+     */
+    List<Job<?, ?>> getJobs() {
+        return Collections.unmodifiableList(this.jobs);
+    }
+
+    /**
+     * @param sorted the entries of the same jobs, some of them computed since, sorted
+     * @return a snapshot of the given entries, as current as this one
+     */
+    XFPanelSnapshot withEntries(List<XFPanelEntry> sorted) {
+        return new XFPanelSnapshot(this.generation, this.queueVersion, this.timestamp, this.jobs, sorted);
+    }
+
+    /**
+     * @param jobs the jobs a caller may see
+     * @return this snapshot restricted to the given jobs
+     */
+    XFPanelSnapshot filter(Collection<Job<?, ?>> jobs) {
+        if (sameJobs(jobs)) {
+            return this;
+        }
+        Set<Job<?, ?>> visible = new HashSet<Job<?, ?>>(jobs);
+        List<XFPanelEntry> filtered = new ArrayList<XFPanelEntry>();
+        for (XFPanelEntry entry : this.entries) {
+            if (visible.contains(entry.getJob())) {
+                filtered.add(entry);
+            }
+        }
+        return new XFPanelSnapshot(this.generation, this.queueVersion, this.timestamp, jobs, filtered);
+    }
+
+    private boolean sameJobs(Collection<Job<?, ?>> other) {
+        if (other.size() != this.jobs.size()) {
+            return false;
+        }
+        Iterator<Job<?, ?>> it = this.jobs.iterator();
+        for (Job<?, ?> job : other) {
+            if (it.next() != job) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
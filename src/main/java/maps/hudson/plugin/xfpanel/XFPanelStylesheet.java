@@ -0,0 +1,93 @@
+package maps.hudson.plugin.xfpanel;
+
+import java.util.regex.Pattern;
+
+/**
+ * Generates the stylesheet of a view from its font, color and layout settings.
+ *
+ * It is written once per panel, and tiles refer to it through classes instead of carrying the same inline
+ * styles each. Classes:
+ * <ul>
+ * <li><code>xfp-box</code>: a tile, along with <code>xfp-ok</code>, <code>xfp-failed</code>, <code>xfp-broken</code>
+ * or <code>xfp-other</code> for its colors</li>
+ * <li><code>xfp-right</code>: the test counts or icons on the right, <code>xfp-failing</code> when tests fail</li>
+ * <li><code>xfp-left</code>: the text on the left, with <code>xfp-name</code>, <code>xfp-info</code> or
+ * <code>xfp-build</code> lines and <code>xfp-claim</code> for claim info</li>
+ * <li><code>xfp-run</code>: a build in progress</li>
+ * <li><code>xfp-trend</code>: the health trend</li>
+ * </ul>
+ */
+final class XFPanelStylesheet {
+
+    private static final Pattern COLOR = Pattern.compile("[0-9a-fA-F]{6}");
+
+    private XFPanelStylesheet() {
+    }
+
+    /**
+     * @param view the view
+     * @return the stylesheet for the tiles of the view
+     */
+    static String generate(XFPanelView view) {
+        String infoFont = view.getGuiInfoFont() + "px";
+        String claimFont = view.getGuiClaimFont() + "px";
+        String fontColor = color(view.getBuildFontColor(), "FFFFFF");
+        StringBuilder css = new StringBuilder(2048);
+        css.append("#side-panel, #page-head, #main-panel-content h1 { display: none; visibility: hidden; height: 0px; }\n");
+        css.append("a.xfp-tile { font-style: normal; font-weight: bold; }\n");
+        css.append(".xfp-box { margin: 4px; -moz-border-radius: 10px; border-radius: 10px; text-align: center; width: ")
+                .append(getTileWidth(view.getNumColumns())).append("; height: ").append(view.getGuiHeight())
+                .append("px; float: left; }\n");
+        status(css, "ok", color(view.getSuccessfulBuildColor(), "7E7EFF"), fontColor);
+        status(css, "failed", color(view.getUnstableBuildColor(), "FFC130"), fontColor);
+        status(css, "broken", color(view.getBrokenBuildColor(), "FF0000"), fontColor);
+        status(css, "other", color(view.getOtherBuildColor(), "CCCCCC"), fontColor);
+        css.append(".xfp-right { width: 20%; height: 100%; color: #00FF00; font-size: ").append(view.getGuiFailFont())
+                .append("px; overflow: hidden; white-space: nowrap; float: right; }\n");
+        css.append(".xfp-right.xfp-failing { color: #FF0000; }\n");
+        css.append(".xfp-right img { float: left; height: 100%; vertical-align: top; border: 0; }\n");
+        css.append(".xfp-unclaimed { font-size: ").append(claimFont).append("; margin-top: -")
+                .append(view.getGuiFailFont() * 0.2).append("px; }\n");
+        css.append(".xfp-left { width: 80%; height: 100%; white-space: nowrap; overflow: hidden; }\n");
+        css.append(".xfp-name { font-size: ").append(view.getGuiJobFont()).append("px; }\n");
+        css.append(".xfp-info, .xfp-trend, .xfp-run { font-size: ").append(infoFont).append("; }\n");
+        css.append(".xfp-build { font-size: ").append(view.getGuiBuildFont()).append("px; }\n");
+        css.append(".xfp-claim { font-size: ").append(claimFont).append("; overflow: hidden; }\n");
+        css.append(".xfp-line { overflow: hidden; }\n");
+        css.append(".xfp-queued { float: right; }\n");
+        css.append(".xfp-run { display: table; width: 100%; }\n");
+        css.append(".xfp-run .xfp-label, .xfp-run .xfp-bar { display: table-cell; vertical-align: middle; }\n");
+        css.append(".xfp-run .xfp-label { white-space: nowrap; padding-right: 4px; }\n");
+        css.append(".xfp-run .xfp-bar { width: 99%; }\n");
+        css.append(".xfp-run table.progress-bar { width: 100%; }\n");
+        css.append(".xfp-run table.progress-bar td { height: ").append(infoFont).append("; }\n");
+        css.append(".xfp-trend .xfp-bars { white-space: nowrap; }\n");
+        css.append(".xfp-trend .xfp-bars span { display: inline-block; width: 4px; height: 0.8em; margin-right: 1px; }\n");
+        return css.toString();
+    }
+
+    /**
+     * @param numColumns number of tiles per row
+     * @return the width of a tile
+     */
+    static String getTileWidth(Integer numColumns) {
+        if (numColumns == null || numColumns <= 1) {
+            return "99%";
+        }
+        return (100D / numColumns - 1) + "%";
+    }
+
+    private static void status(StringBuilder css, String status, String background, String font) {
+        css.append(".xfp-").append(status).append(" { background-color: ").append(background)
+                .append("; color: ").append(font).append("; }\n");
+    }
+
+    /**
+     * @param color a color without its leading <code>#</code>
+     * @param defaultColor the color to use if it isn't a valid one
+     * @return the color as CSS
+     */
+    private static String color(String color, String defaultColor) {
+        return "#" + (color != null && COLOR.matcher(color).matches() ? color : defaultColor);
+    }
+}
@@ -0,0 +1,79 @@
+package maps.hudson.plugin.xfpanel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rendered markup of the tiles of a view, by {@link XFPanelView#getTileKey}.
+ *
+ * Tiles whose key didn't change since they were last rendered are written from here instead of going
+ * through <code>job.jelly</code> again. The cache only holds the most recently used {@link #SIZE} tiles,
+ * and is dropped along with the view's settings when its configuration is saved.
+ */
+public final class XFPanelTileCache {
+
+    /**
+     * Upper bound for the number of cached tiles.
+     */
+    static final int SIZE = 500;
+
+    private final Map<String, String> tiles = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > SIZE;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param key the key of a tile
+     * @return the markup of the tile, or null if it has to be rendered
+     */
+    public String get(String key) {
+        String tile;
+        synchronized (this.tiles) {
+            tile = this.tiles.get(key);
+        }
+        (tile != null ? this.hits : this.misses).incrementAndGet();
+        return tile;
+    }
+
+    /**
+     * @param key the key of a tile
+     * @param html the markup the tile was rendered to, by <code>job.jelly</code> or {@link XFPanelRenderer}
+     * @return the markup to write for the tile
+     */
+    public String put(String key, String html) {
+        synchronized (this.tiles) {
+            this.tiles.put(key, html);
+        }
+        return html;
+    }
+
+    /**
+     * @return the number of tiles written from the cache
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of tiles that had to be rendered
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the number of cached tiles
+     */
+    public int getSize() {
+        synchronized (this.tiles) {
+            return this.tiles.size();
+        }
+    }
+}
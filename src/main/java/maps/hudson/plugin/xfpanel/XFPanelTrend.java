@@ -0,0 +1,147 @@
+package maps.hudson.plugin.xfpanel;
+
+import hudson.Util;
+import hudson.model.Result;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Health trend of a job over its last builds, as recorded by {@link XFPanelJobIndex}.
+ *
+ * A failure is a {@link Result#FAILURE}; a successful or unstable build after one ends the red streak and
+ * counts as a recovery. Failure rate and mean time to recovery are taken over the same builds; a red streak
+ * that was already running at the oldest of them has no known start and doesn't count as a recovery.
+ */
+public final class XFPanelTrend {
+
+    /**
+     * Results by {@link Result#ordinal}.
+     */
+    private static final Result[] RESULTS = { Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED };
+
+    private static final String AT_LEAST = "\u2265";
+
+    private final List<Result> results;
+    private final int failures;
+    private final int redStreak;
+    private final long firstFailure;
+    private final boolean redStreakOpen;
+    private final int recoveries;
+    private final long recoveryTime;
+    private final long timestamp;
+
+    /**
+     * C'tor
+     * @param ordinals ordinals of the results of the last builds, oldest first
+     * @param completions completion times of the same builds, in milliseconds
+     * @param redStreak number of failures since the last recovery
+     * @param firstFailure completion time of the first failure of the red streak, in milliseconds
+     * @param redStreakOpen true if the red streak started before the first failure known
+     */
+    XFPanelTrend(byte[] ordinals, long[] completions, int redStreak, long firstFailure, boolean redStreakOpen) {
+        List<Result> list = new ArrayList<Result>(ordinals.length);
+        int failed = 0;
+        int recovered = 0;
+        long recovering = 0;
+        // the start of a red streak is known once a successful or unstable build came before it
+        boolean settled = false;
+        long streakStart = -1;
+        for (int i = 0; i < ordinals.length; i++) {
+            byte ordinal = ordinals[i];
+            Result result = ordinal >= 0 && ordinal < RESULTS.length ? RESULTS[ordinal] : Result.NOT_BUILT;
+            list.add(result);
+            if (result == Result.FAILURE) {
+                failed++;
+                if (settled && streakStart < 0) {
+                    streakStart = completions[i];
+                }
+            } else if (!result.isWorseThan(Result.UNSTABLE)) {
+                if (streakStart >= 0) {
+                    recovered++;
+                    recovering += Math.max(0, completions[i] - streakStart);
+                }
+                streakStart = -1;
+                settled = true;
+            }
+        }
+        this.results = Collections.unmodifiableList(list);
+        this.failures = failed;
+        this.redStreak = redStreak;
+        this.firstFailure = firstFailure;
+        this.redStreakOpen = redStreakOpen;
+        this.recoveries = recovered;
+        this.recoveryTime = recovering;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the results of the last builds, oldest first
+     */
+    public List<Result> getResults() {
+        return this.results;
+    }
+
+    /**
+     * @return the number of builds the trend covers
+     */
+    public int getBuildCount() {
+        return this.results.size();
+    }
+
+    /**
+     * @return the number of failures among those builds
+     */
+    public int getFailureCount() {
+        return this.failures;
+    }
+
+    /**
+     * @return the share of failures among those builds, empty if there are no builds
+     */
+    public String getFailureRate() {
+        if (this.results.isEmpty()) {
+            return "";
+        }
+        return NumberFormat.getPercentInstance().format(this.failures / (this.results.size() * 1D));
+    }
+
+    /**
+     * @return the number of consecutive failures up to the last build
+     */
+    public int getRedStreak() {
+        return this.redStreak;
+    }
+
+    /**
+     * @return the number of consecutive failures up to the last build, prefixed with &ge; if the streak
+     * started before the builds the trend covers
+     */
+    public String getRedStreakLabel() {
+        return (this.redStreakOpen ? AT_LEAST : "") + this.redStreak;
+    }
+
+    /**
+     * @return time since the first failure of the current red streak, empty if the job isn't failing; prefixed
+     * like {@link #getRedStreakLabel()}
+     */
+    public String getTimeSinceFirstFailure() {
+        if (this.redStreak == 0) {
+            return "";
+        }
+        return (this.redStreakOpen ? AT_LEAST : "") + Util.getTimeSpanString(Math.max(0, this.timestamp - this.firstFailure));
+    }
+
+    /**
+     * @return mean time from a first failure to the next successful or unstable build among the builds the
+     * trend covers, empty if none recovered
+     */
+    public String getMeanTimeToRecovery() {
+        if (this.recoveries == 0) {
+            return "";
+        }
+        return Util.getTimeSpanString(this.recoveryTime / this.recoveries);
+    }
+}
@@ -1,34 +1,52 @@
 package maps.hudson.plugin.xfpanel;
 
 import hudson.Extension;
-import hudson.model.Result;
 import hudson.model.TopLevelItem;
 import hudson.model.ViewDescriptor;
-import hudson.model.AbstractBuild;
 import hudson.model.Descriptor.FormException;
 import hudson.model.Hudson;
 import hudson.model.Job;
 import hudson.model.ListView;
+import hudson.security.ACL;
 import hudson.util.FormValidation;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.Comparator;
 import java.util.regex.Pattern;
 import java.lang.Math;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
 import jenkins.model.Jenkins;
-
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.WebApp;
+import org.kohsuke.stapler.jelly.HTMLWriterOutput;
+import org.kohsuke.stapler.jelly.JellyClassTearOff;
 
 /**
  * Represents an eXtreme Feedback Panel View.
@@ -41,6 +59,8 @@ public class XFPanelView extends ListView {
 
     private Integer numColumns = 2;
     private Integer refresh = 3;
+    private Integer backgroundRefresh = 0;
+    private Integer jobTimeBudget = 0;
     private Boolean fullHD = false;
     private Integer guiHeight = 205;
     private Integer guiJobFont = 80;
@@ -51,6 +71,7 @@ public class XFPanelView extends ListView {
 
     private Boolean showDescription = false;
     private Boolean showBrokenBuildCount = false;
+    private Boolean showTrend = false;
     private Boolean showZeroTestCounts = true;
     private Boolean sortDescending = false;
     private Boolean showTimeStamp = true;
@@ -63,12 +84,51 @@ public class XFPanelView extends ListView {
     private Boolean hideSuccessfulBuilds = false;
     private Boolean replaceNumberOfTestCases = true;
     private Boolean showClaimInfoInUnstable = true;
-    private transient List<XFPanelEntry> entries;
+    private Boolean pushUpdates = false;
+    private Integer maxStreams = DEFAULT_MAX_STREAMS;
+    private Boolean fastRenderer = false;
+    private Boolean clientRenderer = false;
+    private Boolean lightweight = false;
+    private transient volatile XFPanelSnapshot snapshot;
+    private transient volatile XFPanelSnapshot published;
+    private transient XFPanelRefresher refresher;
+    private transient XFPanelEntryLoader loader;
+    private transient XFPanelHistory history;
+    private transient XFPanelTileCache tileCache;
+    private transient XFPanelMetrics metrics;
+    private transient long configRevision;
 
     protected XFPanelColors colors;
 
-    protected transient Map<hudson.model.Queue.Item, Integer> placeInQueue = new HashMap<hudson.model.Queue.Item, Integer>();
-    protected Map<String, Integer> priorityPerJob = new HashMap<String, Integer>();
+    /**
+     * Priorities of all Jenkins items, as saved before {@link #jobOrder}; only read to migrate old configurations.
+     */
+    protected Map<String, Integer> priorityPerJob;
+    /**
+     * Names of the jobs of this view, in manual sort order.
+     */
+    private List<String> jobOrder = new ArrayList<String>();
+    private transient Map<String, Integer> jobPriorities;
+
+    /**
+     * Default and maximum page sizes of the job picker.
+     */
+    static final int JOB_SEARCH_LIMIT = 50;
+    static final int JOB_SEARCH_MAX_LIMIT = 500;
+
+    /**
+     * How long a single event stream is kept open, in milliseconds. Kept short, since an open stream holds
+     * a request thread.
+     */
+    static final long STREAM_LIFETIME = 60 * 1000;
+    /**
+     * Number of event streams that may be open on a view unless configured otherwise.
+     */
+    static final int DEFAULT_MAX_STREAMS = Integer.getInteger(XFPanelView.class.getName() + ".maxStreams", 8);
+    /**
+     * How often an idle event stream sends a heartbeat, in milliseconds.
+     */
+    static final long HEARTBEAT_INTERVAL = 15 * 1000;
 
     protected enum Blame { NOTATALL, ONLYLASTFAILEDBUILD, ONLYFIRSTFAILEDBUILD, EVERYINVOLVED }
     protected Blame BlameState = Blame.EVERYINVOLVED;
@@ -171,6 +231,13 @@ public class XFPanelView extends ListView {
         return this.showBrokenBuildCount;
     }
 
+    public Boolean getShowTrend(){
+        if (this.showTrend == null) {
+            this.showTrend = Boolean.FALSE;
+        }
+        return this.showTrend;
+    }
+
     public Boolean getSortDescending() {
         if (this.sortDescending == null) {
             this.sortDescending = Boolean.FALSE;
@@ -241,7 +308,56 @@ public class XFPanelView extends ListView {
         return validateColor( buildFontColor, "FFFFFF");
     }
     public Boolean getPriorityPerJob(){
-        return priorityPerJob != null;
+        return jobOrder != null || priorityPerJob != null;
+    }
+
+    /**
+     * @return the position of each job of this view in the manual sort order
+     */
+    synchronized Map<String, Integer> getJobPriorities() {
+        if (this.jobPriorities == null) {
+            if (this.jobOrder == null) {
+                // from all items of the view, not only those the current user can read
+                SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+                try {
+                    this.jobOrder = migratePriorities(this.priorityPerJob, getItems());
+                } finally {
+                    SecurityContextHolder.setContext(previous);
+                }
+                this.priorityPerJob = null;
+            }
+            Map<String, Integer> priorities = new HashMap<String, Integer>();
+            int priority = 0;
+            for (String name : this.jobOrder) {
+                priorities.put(name, priority++);
+            }
+            this.jobPriorities = priorities;
+        }
+        return this.jobPriorities;
+    }
+
+    /**
+     * @param priorityPerJob priorities as saved by older versions, or null
+     * @param items the items of this view
+     * @return the names of the given items ordered by priority; priorities of jobs that left the view are dropped
+     */
+    static List<String> migratePriorities(final Map<String, Integer> priorityPerJob, Collection<? extends TopLevelItem> items) {
+        List<String> order = new ArrayList<String>();
+        if (priorityPerJob == null) {
+            return order;
+        }
+        for (TopLevelItem item : items) {
+            if (priorityPerJob.containsKey(item.getName())) {
+                order.add(item.getName());
+            }
+        }
+        Collections.sort(order, new Comparator<String>() {
+            public int compare(String n1, String n2) {
+                int c = priorityPerJob.get(n1).compareTo(priorityPerJob.get(n2));
+                return c != 0 ? c : n1.compareToIgnoreCase(n2);
+            }
+        });
+        return order;
     }
     /**
      * Return true, if claim-plugin is installed
@@ -259,104 +375,717 @@ public class XFPanelView extends ListView {
     public Boolean getAutoResizeEntryHeight(){
         return this.autoResizeEntryHeight;
     }
+    public Boolean getPushUpdates(){
+        if (this.pushUpdates == null) {
+            this.pushUpdates = Boolean.FALSE;
+        }
+        return this.pushUpdates;
+    }
+
+    public Boolean getFastRenderer(){
+        if (this.fastRenderer == null) {
+            this.fastRenderer = Boolean.FALSE;
+        }
+        return this.fastRenderer;
+    }
+
+    public Boolean getClientRenderer(){
+        if (this.clientRenderer == null) {
+            this.clientRenderer = Boolean.FALSE;
+        }
+        return this.clientRenderer;
+    }
+
+    /**
+     * @return true if tiles are built from the state of the jobs and their last builds only, see {@link XFPanelEntryData}
+     */
+    public Boolean getLightweight(){
+        if (this.lightweight == null) {
+            this.lightweight = Boolean.FALSE;
+        }
+        return this.lightweight;
+    }
+
+    /**
+     * Renders a tile with {@link XFPanelRenderer} instead of <code>job.jelly</code>.
+     *
+     * @param entry the entry to render
+     * @param rootURL the root URL of Jenkins
+     * @return the markup of the tile
+     */
+    public String renderTile(XFPanelEntry entry, String rootURL) {
+        return new XFPanelRenderer(this, rootURL).render(entry);
+    }
+
+    /**
+     * Renders a tile with <code>job.jelly</code>, straight to HTML.
+     *
+     * @param entry the entry to render
+     * @param context the Jelly context of the page the tile is part of
+     * @return the markup of the tile
+     * @throws JellyException if the template fails
+     * @throws IOException if any
+     */
+    public String renderTemplate(XFPanelEntry entry, JellyContext context) throws JellyException, IOException {
+        Script script = WebApp.getCurrent().getMetaClass(getClass()).loadTearOff(JellyClassTearOff.class)
+                .findScript("job.jelly");
+        StringWriter writer = new StringWriter();
+        JellyContext tileContext = new JellyContext(context);
+        tileContext.setVariable("job", entry);
+        XMLOutput output = HTMLWriterOutput.create(writer, false);
+        script.run(tileContext, output);
+        output.flush();
+        return writer.toString();
+    }
+
+    /**
+     * @return the stylesheet the tiles of this view refer to, see {@link XFPanelStylesheet}
+     */
+    public String getStylesheet() {
+        return XFPanelStylesheet.generate(this);
+    }
 
     static class selectComparator implements Comparator< XFPanelEntry > 
     {
-        private int getPriority(AbstractBuild<?, ?> build) {
-            // never built build
-            if (build == null) {
-                return 1;
+        public int compare(XFPanelEntry a, XFPanelEntry b) {
+            long keyA = a.getSortKey();
+            long keyB = b.getSortKey();
+            return keyA > keyB ? -1 : (keyA == keyB ? 0 : 1);
+        }
+    }
+
+    /**
+     * @param jobs the selected jobs
+     * @return the jobs list wrapped into {@link XFPanelEntry} instances
+     */
+    public Collection<XFPanelEntry> sort(Collection<Job<?, ?>> jobs) {
+        if (jobs != null) {
+            return getSnapshot(jobs).getEntries();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the shared snapshot, rebuilding it at most once per change, restricted to the given jobs.
+     *
+     * @param jobs the selected jobs
+     * @return a snapshot of the sorted entries
+     */
+    XFPanelSnapshot getSnapshot(Collection<Job<?, ?>> jobs) {
+        return getSharedSnapshot().filter(jobs);
+    }
+
+    /**
+     * @return the snapshot of all jobs of this view, whoever may see them
+     */
+    private XFPanelSnapshot getSharedSnapshot() {
+        if (getBackgroundRefresh() > 0) {
+            startRefresher();
+            XFPanelSnapshot latest = this.published;
+            if (latest != null) {
+                getMetrics().snapshot(true);
+                return latest.isStale() ? collectLateEntries(latest) : latest;
             }
+            // nothing published yet, compute it here this once
+        }
+        XFPanelSnapshot current = this.snapshot;
+        boolean reused = current != null && current.isCurrent();
+        if (!reused) {
+            synchronized (this) {
+                current = this.snapshot;
+                reused = current != null && current.isCurrent();
+                if (!reused) {
+                    current = computeSnapshot();
+                    this.snapshot = current;
+                }
+            }
+        }
+        getMetrics().snapshot(reused);
+        return current.isStale() ? collectLateEntries(current) : current;
+    }
+
+    /**
+     * Swaps the entries of slow jobs that got computed since into the snapshots of this view, without recomputing
+     * any other entry.
+     *
+     * @param current the snapshot to serve
+     * @return the snapshot to serve instead
+     */
+    private synchronized XFPanelSnapshot collectLateEntries(XFPanelSnapshot current) {
+        if (this.loader == null || !this.loader.hasLate()) {
+            return current;
+        }
+        Map<Job<?, ?>, XFPanelEntry> late = this.loader.collectLate();
+        if (late.isEmpty()) {
+            return current;
+        }
+        XFPanelSnapshot updated = withLateEntries(current, late);
+        this.snapshot = this.snapshot == current ? updated : withLateEntries(this.snapshot, late);
+        this.published = this.published == current ? updated : withLateEntries(this.published, late);
+        return updated;
+    }
 
-            if (build.isBuilding()) {
-                build = build.getPreviousBuild();
-                return getPriority(build);
+    /**
+     * @param current a snapshot of this view, or null
+     * @param late entries computed after the snapshot was taken, by job
+     * @return the snapshot with its stale entries replaced by the computed ones, sorted again
+     */
+    private XFPanelSnapshot withLateEntries(XFPanelSnapshot current, Map<Job<?, ?>, XFPanelEntry> late) {
+        if (current == null || !current.isStale()) {
+            return current;
+        }
+        Map<Job<?, ?>, XFPanelEntry> entries = new HashMap<Job<?, ?>, XFPanelEntry>();
+        boolean changed = false;
+        for (XFPanelEntry entry : current.getEntries()) {
+            XFPanelEntry computed = entry.isStale() ? late.get(entry.getJob()) : null;
+            changed |= computed != null;
+            entries.put(entry.getJob(), computed != null ? computed : entry);
+        }
+        if (!changed) {
+            return current;
+        }
+        List<XFPanelEntry> sorted = new ArrayList<XFPanelEntry>(entries.size());
+        for (Job<?, ?> job : getPrioritySortedJobs(current.getJobs(), false)) {
+            XFPanelEntry entry = entries.get(job);
+            if (entry != null) {
+                sorted.add(entry);
             }
+        }
+        sortEntries(sorted);
+        return current.withEntries(sorted);
+    }
 
-            Result result = build.getResult();
-            if (result != null) {
-                // priority order: the least important -> the most important 
-                Result allResults[] = { Result.SUCCESS, Result.ABORTED, Result.NOT_BUILT, Result.UNSTABLE, Result.FAILURE };
-                int resultValues[]  = {       0,              1,              1,                2,               3        };
-                for (int i=0; i < allResults.length; i++) {
-                    if (result == allResults[i] ){
-                        return resultValues[i];
-                    }
-                }
+    /**
+     * Recomputes the panel for all jobs of this view if anything changed, and publishes it for the requests
+     * to filter by what their users may see.
+     */
+    void refreshInBackground() {
+        XFPanelSnapshot current = this.published;
+        if (current != null && current.isCurrent()) {
+            if (current.isStale()) {
+                collectLateEntries(current);
             }
-            return 1;
+            return;
         }
+        this.published = computeSnapshot();
+    }
 
-        public int compare(XFPanelEntry a, XFPanelEntry b) {
-            AbstractBuild<?, ?> buildA = a.getLastBuild();
-            AbstractBuild<?, ?> buildB = b.getLastBuild();
-            int result = getPriority(buildB) - getPriority(buildA);
+    /**
+     * Computes the panel for all jobs of this view, whoever asks for it, so that one snapshot serves every user.
+     *
+     * @return a snapshot of the entries of all jobs of this view
+     */
+    private XFPanelSnapshot computeSnapshot() {
+        // read the queue and the generation first, so that changes happening while we compute mark the result dirty
+        long queueVersion = XFPanelQueueIndex.get().getVersion();
+        long generation = XFPanelChangeTracker.getGeneration();
+        SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+        try {
+            Collection<Job<?, ?>> jobs = getJobs();
+            return new XFPanelSnapshot(generation, queueVersion, jobs, createEntries(jobs));
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
 
-            // if build results are same and builds exists-> sort by build timestamp    
-            if (result == 0 ){
+    private synchronized void startRefresher() {
+        if (this.refresher == null && getBackgroundRefresh() > 0) {
+            this.refresher = XFPanelRefresher.start(this, getBackgroundRefresh() * 1000L);
+        }
+    }
 
-                // if build is null, show it on bottom of its class
-                if ( buildA == null || buildB == null ){
-                    return  ( buildA == null ) ? 1 : 0;
-                }
+    private synchronized void stopRefresher() {
+        if (this.refresher != null) {
+            this.refresher.stop();
+            this.refresher = null;
+        }
+        this.published = null;
+    }
 
-                // if building atm -> show build on top of its class
-                if ( buildA.isBuilding() || buildB.isBuilding() ){
-                    return ( buildA.isBuilding() ) ? 0 : 1;
-                }
-                return b.getCompletionTimestamp().compareTo(a.getCompletionTimestamp());
+    /**
+     * @return true if this view is still one of the views of its owner
+     */
+    boolean isRegistered() {
+        return getOwner() != null && getOwner().getView(getViewName()) == this;
+    }
+
+    /**
+     * The fingerprint also changes with time where the rendered panel does: once a minute for
+     * "built N minutes ago" and once per refresh period while progress bars are shown.
+     *
+     * @param current a snapshot of this view
+     * @return a fingerprint of what the panel shows
+     */
+    String getFingerprint(XFPanelSnapshot current) {
+        StringBuilder fingerprint = new StringBuilder(current.getFingerprint());
+        long now = System.currentTimeMillis();
+        if (Boolean.TRUE.equals(this.showTimeStamp)) {
+            fingerprint.append('-').append(Long.toString(now / 60000, 36));
+        }
+        if (current.isBuilding()) {
+            fingerprint.append('-').append(Long.toString(now / getRefreshMillis(), 36));
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Serves <code>headlessdisplay.jelly</code>, or answers <code>304 Not Modified</code> without rendering
+     * anything when the client already has the current panel.
+     *
+     * @param req {@link StaplerRequest}
+     * @param rsp {@link StaplerResponse}
+     * @throws IOException if any
+     * @throws ServletException if any
+     */
+    public void doHeadlessdisplay(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        getMetrics().poll(getPoller(req));
+        String etag = "\"" + getConfigRevision() + '-' + getFingerprint(getSnapshot(getJobs())) + "\"";
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        long start = System.nanoTime();
+        req.getView(this, "headlessdisplay.jelly").forward(req, rsp);
+        getMetrics().record(XFPanelMetrics.Phase.RENDER, start);
+    }
+
+    /**
+     * Serves <code>delta.jelly</code>, or answers <code>304 Not Modified</code> without rendering
+     * anything when nothing changed since the version the client has.
+     *
+     * @param req {@link StaplerRequest}
+     * @param rsp {@link StaplerResponse}
+     * @throws IOException if any
+     * @throws ServletException if any
+     */
+    public void doDelta(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        getMetrics().poll(getPoller(req));
+        String since = req.getParameter("since");
+        XFPanelDelta delta = getDelta(since);
+        rsp.setHeader("Cache-Control", "no-cache");
+        if (!delta.getFull() && String.valueOf(delta.getVersion()).equals(since)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        req.setAttribute("delta", delta);
+        long start = System.nanoTime();
+        req.getView(this, "delta.jelly").forward(req, rsp);
+        getMetrics().record(XFPanelMetrics.Phase.RENDER, start);
+    }
+
+    /**
+     * @return changes whenever the configuration of this view is saved
+     */
+    private long getConfigRevision() {
+        if (this.configRevision == 0) {
+            this.configRevision = System.currentTimeMillis();
+        }
+        return this.configRevision;
+    }
+
+    /**
+     * @param since the version the client last saw, as returned by {@link XFPanelDelta#getVersion()}
+     * @return the tiles that changed since that version, or all of them if it is unknown
+     */
+    public XFPanelDelta getDelta(String since) {
+        long version = -1;
+        if (since != null) {
+            try {
+                version = Long.parseLong(since);
+            } catch (NumberFormatException e) {
+                // unknown version, send everything
             }
-            return result;
         }
+        // versions are shared by all users, each of them only gets the tiles of the jobs they may see
+        XFPanelDelta delta = getHistory().diff(version, getVisibleEntries(getSharedSnapshot()));
+        Set<String> names = new HashSet<String>();
+        for (Job<?, ?> job : getJobs()) {
+            names.add(job.getFullName());
+        }
+        return delta.filter(names);
     }
 
     /**
-     * @param jobs the selected jobs
-     * @return the jobs list wrapped into {@link XFPanelEntry} instances
+     * @param current a snapshot of this view
+     * @return the entries shown on the panel, without successful ones if those are hidden
      */
-    public Collection<XFPanelEntry> sort(Collection<Job<?, ?>> jobs) {
-        placeInQueue = new HashMap<hudson.model.Queue.Item, Integer>();
-        int j = 1;
-        for(hudson.model.Queue.Item i : Hudson.getInstance().getQueue().getItems()) {
-            placeInQueue.put(i, j++);
+    private List<XFPanelEntry> getVisibleEntries(XFPanelSnapshot current) {
+        List<XFPanelEntry> visible = new ArrayList<XFPanelEntry>();
+        for (XFPanelEntry entry : current.getEntries()) {
+            if (!(Boolean.TRUE.equals(this.hideSuccessfulBuilds) && entry.isBuildSuccessful())) {
+                visible.add(entry);
+            }
         }
-        if (jobs != null) {
-            List<XFPanelEntry> ents = new ArrayList<XFPanelEntry>();
-            Collection<Job<?,?>> sortedJobs = getPrioritySortedJobs(jobs, false);
-            for (Job<?, ?> job : sortedJobs) {
-            	  XFPanelEntry xfPanelEntry = new XFPanelEntry(this, job);
-            	  xfPanelEntry.init();
-            	  ents.add(xfPanelEntry);
+        return visible;
+    }
+
+    /**
+     * Serves the panel as JSON, see {@link XFPanelJson}, or answers <code>304 Not Modified</code> when the
+     * client already has the current panel.
+     *
+     * @param req {@link StaplerRequest}
+     * @param rsp {@link StaplerResponse}
+     * @throws IOException if any
+     */
+    public void doPanelJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        getMetrics().poll(getPoller(req));
+        XFPanelSnapshot current = getSnapshot(getJobs());
+        String version = getConfigRevision() + "-" + getFingerprint(current);
+        String etag = "\"" + version + "\"";
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", "no-cache");
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        rsp.setContentType("application/json;charset=UTF-8");
+        long start = System.nanoTime();
+        XFPanelJson.toJson(this, getVisibleEntries(current), version, req.getContextPath()).write(rsp.getWriter());
+        getMetrics().record(XFPanelMetrics.Phase.RENDER, start);
+    }
+
+    /**
+     * Serves the metrics of this view as JSON, see {@link XFPanelMetrics}. Like the explain page, it requires
+     * {@link #CONFIGURE}.
+     *
+     * @param req {@link StaplerRequest}
+     * @param rsp {@link StaplerResponse}
+     * @throws IOException if any
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkPermission(CONFIGURE);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        long pollerWindow = Math.max(2 * getRefreshMillis(), 10000);
+        getMetrics().toJson(pollerWindow, getTileCache()).write(rsp.getWriter());
+    }
+
+    /**
+     * Builds the entry of every job of this view from scratch and times its lookups, for <code>explain.jelly</code>.
+     * Nothing of it is cached or counted in {@link #getMetrics()}.
+     *
+     * @param rootURL the root URL of Jenkins
+     * @return what the tile of each job costs, most expensive first
+     */
+    public List<XFPanelExplain> getExplain(String rootURL) {
+        checkPermission(CONFIGURE);
+        return XFPanelExplain.explain(this, getJobs(), rootURL);
+    }
+
+    /**
+     * @return the columns of <code>explain.jelly</code>
+     */
+    public List<String> getExplainColumns() {
+        return XFPanelExplain.COLUMNS;
+    }
+
+    /**
+     * @return the metrics of this view
+     */
+    public synchronized XFPanelMetrics getMetrics() {
+        if (this.metrics == null) {
+            this.metrics = new XFPanelMetrics();
+        }
+        return this.metrics;
+    }
+
+    /**
+     * @param req a request of the panel
+     * @return identifies the browser polling the panel
+     */
+    private static String getPoller(StaplerRequest req) {
+        return req.getRemoteAddr() + ' ' + req.getHeader("User-Agent");
+    }
+
+    /**
+     * @return the rendered tiles of this view
+     */
+    public synchronized XFPanelTileCache getTileCache() {
+        if (this.tileCache == null) {
+            this.tileCache = new XFPanelTileCache();
+        }
+        return this.tileCache;
+    }
+
+    /**
+     * @param entry an entry of this view
+     * @param locale the locale the tile is rendered for
+     * @return a key that changes whenever the tile of the entry renders differently
+     */
+    public String getTileKey(XFPanelEntry entry, Locale locale) {
+        // the label is rendered from the job as it is now, even for a stale entry
+        return new StringBuilder(entry.getName())
+                .append('|').append(entry.getDisplayKey())
+                .append('|').append(entry.getCulprits())
+                .append('|').append(locale)
+                .append('|').append(getConfigRevision())
+                .toString();
+    }
+
+    private synchronized XFPanelHistory getHistory() {
+        if (this.history == null) {
+            this.history = new XFPanelHistory();
+        }
+        return this.history;
+    }
+
+    /**
+     * @return the jobs of this view, as seen by the current user
+     */
+    Collection<Job<?, ?>> getJobs() {
+        long start = System.nanoTime();
+        List<Job<?, ?>> jobs = new ArrayList<Job<?, ?>>();
+        for (TopLevelItem item : getItems()) {
+            if (item instanceof Job<?, ?>) {
+                jobs.add((Job<?, ?>) item);
             }
-            if ( enableAutomaticSort == true ){
-                Collections.sort(ents, new selectComparator() );
+        }
+        getMetrics().record(XFPanelMetrics.Phase.ITEMS, start);
+        return jobs;
+    }
+
+    /**
+     * Streams panel changes as Server-Sent Events.
+     *
+     * An <code>update</code> event carrying the panel fingerprint as its id is sent whenever what the
+     * panel shows changes, and a comment is sent as heartbeat otherwise. Browsers reconnect on their own
+     * after {@link #STREAM_LIFETIME} and send back the last id they saw, so no update is missed or repeated.
+     * Once {@link #getMaxStreams()} streams are open on this view, a <code>busy</code> event is sent instead and
+     * the stream is closed right away, and the screen polls instead. The servlet containers Jenkins runs in
+     * don't support asynchronous requests, so every open stream holds a request thread.
+     *
+     * @param req {@link StaplerRequest}
+     * @param rsp {@link StaplerResponse}
+     * @throws IOException if any
+     */
+    public void doEvents(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/event-stream;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = rsp.getWriter();
+        out.print("retry: " + getRefreshMillis() + "\n\n");
+        if (!getMetrics().openStream(getMaxStreams())) {
+            out.print("event: busy\ndata: \n\n");
+            out.flush();
+            return;
+        }
+
+        String lastEventId = req.getHeader("Last-Event-ID");
+        long deadline = System.currentTimeMillis() + STREAM_LIFETIME;
+        long generation = XFPanelChangeTracker.getGeneration();
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                XFPanelSnapshot current = getSnapshot(getJobs());
+                String fingerprint = getFingerprint(current);
+                if (!fingerprint.equals(lastEventId)) {
+                    out.print("id: " + fingerprint + "\nevent: update\ndata: " + fingerprint + "\n\n");
+                    lastEventId = fingerprint;
+                } else {
+                    out.print(": heartbeat\n\n");
+                }
+                out.flush();
+                if (out.checkError()) {
+                    // the browser went away
+                    return;
+                }
+                long timeout = current.isBuilding() ? getRefreshMillis() : HEARTBEAT_INTERVAL;
+                generation = XFPanelChangeTracker.awaitChange(generation, timeout);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            getMetrics().closeStream();
+        }
+    }
+
+    private long getRefreshMillis() {
+        return Math.max(1, this.refresh != null ? this.refresh : 3) * 1000L;
+    }
 
-            if (this.getSortDescending()) {
-                Collections.reverse(ents);
+    private List<XFPanelEntry> createEntries(Collection<Job<?, ?>> jobs) {
+        long start = System.nanoTime();
+        Collection<Job<?,?>> sortedJobs = getPrioritySortedJobs(jobs, false);
+        long sorting = System.nanoTime() - start;
+        List<XFPanelEntry> ents = getJobTimeBudget() > 0 ? loadEntries(sortedJobs) : null;
+        if (ents == null) {
+            ents = new ArrayList<XFPanelEntry>();
+            for (Job<?, ?> job : sortedJobs) {
+                XFPanelEntry xfPanelEntry = new XFPanelEntry(this, job);
+                xfPanelEntry.init();
+                ents.add(xfPanelEntry);
             }
+        }
+        start = System.nanoTime();
+        sortEntries(ents);
+        sorting += System.nanoTime() - start;
+        getMetrics().add(XFPanelMetrics.Phase.SORT, sorting);
+        return ents;
+    }
 
-            this.entries = ents;
-            return this.entries;
+    /**
+     * @param ents entries in the configured order of their jobs, sorted as the panel shows them on return
+     */
+    private void sortEntries(List<XFPanelEntry> ents) {
+        if ( enableAutomaticSort == true ){
+            Collections.sort(ents, new selectComparator() );
+        }
+
+        if (this.getSortDescending()) {
+            Collections.reverse(ents);
+        }
+    }
+
+    /**
+     * Builds the entries in parallel, falling back to the previous entry of a job that exceeds its budget, until
+     * {@link #collectLateEntries} swaps in its computed one.
+     *
+     * @param jobs the jobs to build entries for
+     * @return the entries in the order of the jobs, or null if interrupted
+     */
+    private List<XFPanelEntry> loadEntries(Collection<Job<?, ?>> jobs) {
+        Map<Job<?, ?>, XFPanelEntry> previous = new HashMap<Job<?, ?>, XFPanelEntry>();
+        for (XFPanelSnapshot last : new XFPanelSnapshot[] { this.snapshot, this.published }) {
+            if (last != null) {
+                for (XFPanelEntry entry : last.getEntries()) {
+                    previous.put(entry.getJob(), entry);
+                }
+            }
+        }
+        XFPanelEntryLoader entryLoader;
+        synchronized (this) {
+            if (this.loader == null) {
+                this.loader = new XFPanelEntryLoader(this);
+            }
+            entryLoader = this.loader;
+        }
+        try {
+            return entryLoader.load(jobs, getJobTimeBudget(), previous);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         }
-        return Collections.emptyList();
     }
 
+    /**
+     * Lists the jobs this view can hold: the jobs of this view first, in their configured order, then all other
+     * top-level jobs, alphabetically as Jenkins keeps them. Jobs inside folders aren't listed, since the view selects
+     * its jobs by name among the top-level items only.
+     *
+     * @return every top-level job of this Jenkins instance, the jobs of this view first
+     * @see #getPrioritySortedJobs(String, int, int)
+     */
     public Collection<Job<?, ?>> getPrioritySortedJobs() {
-			List<Job<?, ?>> allItems = null;
-			allItems = Jenkins.getInstance().getAllItems((Class<Job<?,?>>) (Class) Job.class);
-    	return getPrioritySortedJobs(allItems);
+        return getPrioritySortedJobs(null, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Pages through the top-level jobs of this Jenkins instance, in the order of {@link #getPrioritySortedJobs()}.
+     * Only the requested page is collected. This is also what the job picker of the configuration page searches.
+     *
+     * @param prefix start of the names of the jobs to return, ignoring case; null or empty for all jobs
+     * @param offset number of jobs to skip
+     * @param limit maximum number of jobs to return
+     * @return the requested page of jobs
+     */
+    public List<Job<?, ?>> getPrioritySortedJobs(String prefix, int offset, int limit) {
+        List<Job<?, ?>> page = new ArrayList<Job<?, ?>>();
+        String lowerPrefix = prefix != null ? prefix.toLowerCase(Locale.ENGLISH) : "";
+        Collection<Job<?, ?>> selected = getSelectedJobs();
+        int index = 0;
+        for (Job<?, ?> job : selected) {
+            if (page.size() >= limit) {
+                return page;
+            }
+            if (job.getName().toLowerCase(Locale.ENGLISH).startsWith(lowerPrefix) && index++ >= offset) {
+                page.add(job);
+            }
+        }
+        Set<Job<?, ?>> selectedSet = new HashSet<Job<?, ?>>(selected);
+        Iterator<Job<?, ?>> others = new XFPanelJobStream(Jenkins.getInstance(), prefix);
+        while (page.size() < limit && others.hasNext()) {
+            Job<?, ?> job = others.next();
+            if (!selectedSet.contains(job) && index++ >= offset) {
+                page.add(job);
+            }
+        }
+        return page;
     }
     
     public Collection<Job<?, ?>> getPrioritySortedJobs(Collection<Job<?, ?>> jobs) {
     	return getPrioritySortedJobs(jobs, true);
     }
+
+    /**
+     * @return the jobs of this view, in the order the configuration page lists them
+     */
+    public Collection<Job<?, ?>> getSelectedJobs() {
+        return getPrioritySortedJobs(getJobs(), true);
+    }
+
+    /**
+     * Lists one page of the jobs matching a search, for the job picker of the configuration page.
+     *
+     * @param req {@link StaplerRequest}
+     * @param rsp {@link StaplerResponse}
+     * @throws IOException if any
+     */
+    public void doJobSearch(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        checkPermission(CONFIGURE);
+        int offset = Math.max(0, parseInt(req.getParameter("offset"), 0));
+        int limit = Math.min(JOB_SEARCH_MAX_LIMIT, Math.max(1, parseInt(req.getParameter("limit"), JOB_SEARCH_LIMIT)));
+        JSONObject result = searchJobs(req.getParameter("q"), offset, limit);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().print(result.toString());
+    }
+
+    /**
+     * @param query start of the names of the jobs to find, ignoring case; null or empty for all jobs
+     * @param offset number of matching jobs to skip
+     * @param limit maximum number of jobs to return
+     * @return the requested page of the matching jobs with their selection state, and whether more jobs match
+     * @see #getPrioritySortedJobs(String, int, int)
+     */
+    JSONObject searchJobs(String query, int offset, int limit) {
+        // one job beyond the page tells whether there is a next one, without counting all matches
+        List<Job<?, ?>> jobs = getPrioritySortedJobs(query != null ? query.trim() : null, offset, limit + 1);
+        Set<TopLevelItem> selected = new HashSet<TopLevelItem>(getItems());
+        JSONArray page = new JSONArray();
+        for (Job<?, ?> job : jobs.subList(0, Math.min(limit, jobs.size()))) {
+            JSONObject json = new JSONObject();
+            json.put("name", job.getName());
+            json.put("selected", selected.contains(job));
+            page.add(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("offset", offset);
+        result.put("more", jobs.size() > limit);
+        result.put("jobs", page);
+        return result;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
     
     public Collection<Job<?, ?>> getPrioritySortedJobs(Collection<Job<?, ?>> jobs, final boolean isConfiguration) {
       if (jobs != null) {
           List<Job<?, ?>> sortedJobs = new ArrayList<Job<?, ?>>(jobs);
-          final List<TopLevelItem> allItems = getItems(); //this is expensive function, and used in 'contains', so collect it once to speed up
+          long start = System.nanoTime();
+          final Set<TopLevelItem> allItems = new HashSet<TopLevelItem>(getItems()); //this is expensive function, and used in 'contains', so collect it once to speed up
+          getMetrics().record(XFPanelMetrics.Phase.ITEMS, start);
           final Integer lastPriority = Integer.MAX_VALUE;
+          final Map<String, Integer> priorities = manualSort ? getJobPriorities() : null;
           if (manualSort || !enableAutomaticSort) {
 	          Collections.sort(sortedJobs, new Comparator<Job<?, ?>>() {
 	
@@ -364,9 +1093,9 @@ public class XFPanelView extends ListView {
 							public int compare(Job<?, ?> o1, Job<?, ?> o2) {
 								String n1 = o1.getName();
 								String n2 = o2.getName();
-								if (manualSort && priorityPerJob != null) {
-									Integer p1 = (isConfiguration && !containsJob(o1)) ? lastPriority : priorityPerJob.get(n1);
-									Integer p2 = (isConfiguration && !containsJob(o2)) ? lastPriority : priorityPerJob.get(n2);
+								if (priorities != null) {
+									Integer p1 = (isConfiguration && !containsJob(o1)) ? lastPriority : priorities.get(n1);
+									Integer p2 = (isConfiguration && !containsJob(o2)) ? lastPriority : priorities.get(n2);
 									if (p1 == null) {
 										p1 = lastPriority;
 									}
@@ -417,6 +1146,37 @@ public class XFPanelView extends ListView {
         return this.refresh;
     }
 
+    /**
+     * @return seconds between two background refreshes of the panel, 0 to compute it on request
+     */
+    public Integer getBackgroundRefresh() {
+        if (this.backgroundRefresh == null || this.backgroundRefresh < 0) {
+            this.backgroundRefresh = 0;
+        }
+        return this.backgroundRefresh;
+    }
+
+    /**
+     * @return milliseconds a job may take to compute its entry before its previous entry is shown, 0 to
+     *         compute all entries one after the other on the requesting thread
+     */
+    public Integer getJobTimeBudget() {
+        if (this.jobTimeBudget == null || this.jobTimeBudget < 0) {
+            this.jobTimeBudget = 0;
+        }
+        return this.jobTimeBudget;
+    }
+
+    /**
+     * @return the number of screens that may receive pushed updates of this view at the same time
+     */
+    public Integer getMaxStreams() {
+        if (this.maxStreams == null || this.maxStreams < 0) {
+            this.maxStreams = DEFAULT_MAX_STREAMS;
+        }
+        return this.maxStreams;
+    }
+
     /**
      * @return the numColumns
      */
@@ -442,6 +1202,8 @@ public class XFPanelView extends ListView {
 
         this.numColumns = asInteger(req, "numColumns");
         this.refresh = asInteger(req, "refresh");
+        this.backgroundRefresh = asInteger(req, "backgroundRefresh");
+        this.jobTimeBudget = asInteger(req, "jobTimeBudget");
 
         this.fullHD = Boolean.parseBoolean(req.getParameter("fullHD"));
         this.guiHeight = asInteger(req, "guiHeight");
@@ -458,6 +1220,12 @@ public class XFPanelView extends ListView {
         this.autoResizeEntryHeight = Boolean.parseBoolean(req.getParameter("autoResizeEntryHeight"));
         this.hideSuccessfulBuilds = Boolean.parseBoolean(req.getParameter("hideSuccessfulBuilds"));
         this.showBrokenBuildCount = Boolean.parseBoolean(req.getParameter("showBrokenBuildCount"));
+        this.showTrend = Boolean.parseBoolean(req.getParameter("showTrend"));
+        this.pushUpdates = Boolean.parseBoolean(req.getParameter("pushUpdates"));
+        this.maxStreams = asInteger(req, "maxStreams");
+        this.fastRenderer = Boolean.parseBoolean(req.getParameter("fastRenderer"));
+        this.clientRenderer = Boolean.parseBoolean(req.getParameter("clientRenderer"));
+        this.lightweight = Boolean.parseBoolean(req.getParameter("lightweight"));
 
         if ( getIsClaimPluginInstalled() ){
             this.guiClaimFont = asInteger(req, "guiClaimFont");
@@ -473,33 +1241,22 @@ public class XFPanelView extends ListView {
         this.otherBuildColor = "#" + req.getParameter("otherBuildColor");
         this.buildFontColor = "#" + req.getParameter("buildFontColor");
 
-        if (this.priorityPerJob == null) {
-            this.priorityPerJob = new HashMap<String, Integer>();
+        // Addition: Get priority of every job of this view
+        final Map<String, Integer> submitted = new HashMap<String, Integer>();
+        List<String> order = new ArrayList<String>();
+        for (TopLevelItem item : getItems()) {
+            String itemName = item.getName();
+            order.add(itemName);
+            submitted.put(itemName, parseInt(req.getParameter(itemName + "_priority"), Integer.MAX_VALUE));
         }
-        // Addition: Get priority of every job
-        int priority = 0;
-        this.priorityPerJob.clear();
-        for (hudson.model.Item i : Hudson.getInstance().getItems()) {
-            String itemName = i.getName();
-            if (itemName != null) {
-                String paramName = itemName + "_priority";
-                try {
-                    String priorityStr = req.getParameter(paramName);
-                    if (priorityStr != null) {
-                        priority = Integer.parseInt(priorityStr);
-                    } else{
-                        priority = 0;
-                    }
-                } catch (NumberFormatException e) {
-                    priority++;
-                } catch (Exception e) {
-                    priority++;
-                }
-                this.priorityPerJob.put(itemName, priority);
-            } else {
-                throw new FormException("Couldn't read jobs from the config file. Generate a new config-file: jenkins_job_url/configure", "");
+        Collections.sort(order, new Comparator<String>() {
+            public int compare(String n1, String n2) {
+                int c = submitted.get(n1).compareTo(submitted.get(n2));
+                return c != 0 ? c : n1.compareToIgnoreCase(n2);
             }
-        }
+        });
+        this.jobOrder = order;
+        this.priorityPerJob = null;
 
         String SortType = req.getParameter("sort");
         if (SortType != null) {
@@ -533,7 +1290,17 @@ public class XFPanelView extends ListView {
         }
         this.jobNameReplaceRegExp = req.getParameter("jobNameReplaceRegExp");
         this.jobNameReplacement = req.getParameter("jobNameReplacement");
-        
+
+        // settings affect entries, their order and how they are rendered
+        synchronized (this) {
+            stopRefresher();
+            this.jobPriorities = null;
+            this.snapshot = null;
+            this.history = null;
+            this.tileCache = null;
+            this.configRevision = System.currentTimeMillis();
+        }
+        startRefresher();
     }
 
     private Integer asInteger(StaplerRequest request, String parameterName) throws FormException {
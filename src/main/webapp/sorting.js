@@ -68,3 +68,125 @@ function UpdateJobOptions(currentElement) {
 
 
 
+
+var jobSearchUrl = null;
+var jobSearchOffset = 0;
+var jobSearchMore = false;
+var jobSearchLimit = 50;
+var jobSearchTimer = null;
+
+function SearchJobsDelayed(url) {
+    if (jobSearchTimer != null) {
+        clearTimeout(jobSearchTimer);
+    }
+    jobSearchTimer = setTimeout(function() {
+        jobSearchTimer = null;
+        SearchJobs(url, 0);
+    }, 300);
+}
+
+function SearchJobsPage(direction) {
+    var offset = jobSearchOffset + direction * jobSearchLimit;
+    if (jobSearchUrl == null || offset < 0 || (direction > 0 && !jobSearchMore)) {
+        return;
+    }
+    SearchJobs(jobSearchUrl, offset);
+}
+
+function SearchJobs(url, offset) {
+    jobSearchUrl = url;
+    var query = document.getElementById('jobSearchQuery').value;
+    new Ajax.Request(url, {
+        method: 'get',
+        parameters: { q: query, offset: offset, limit: jobSearchLimit },
+        onSuccess: function(rsp) {
+            if (query != document.getElementById('jobSearchQuery').value) {
+                return; // a newer search is on its way
+            }
+            ShowJobSearchResults(rsp.responseText.evalJSON());
+        }
+    });
+}
+
+function ShowJobSearchResults(result) {
+    jobSearchOffset = result.offset;
+    jobSearchMore = result.more;
+
+    var list = document.getElementById('jobSearchResults');
+    while (list.firstChild) {
+        list.removeChild(list.firstChild);
+    }
+    for (var i = 0; i < result.jobs.length; i++) {
+        list.appendChild(CreateJobSearchResult(result.jobs[i]));
+    }
+
+    var status = document.getElementById('jobSearchStatus');
+    status.innerHTML = '';
+    if (result.jobs.length > 0) {
+        status.appendChild(document.createTextNode((result.offset + 1) + '-'
+            + (result.offset + result.jobs.length) + (result.more ? ' ...' : '')));
+    }
+}
+
+function CreateJobSearchResult(job) {
+    // the job list holds the jobs being edited; search results only toggle them
+    var selected = document.getElementById(job.name);
+    var checkbox = document.createElement('input');
+    checkbox.type = 'checkbox';
+    checkbox.checked = selected != null ? SelectedCheckbox(selected).checked : job.selected;
+    checkbox.onclick = function() {
+        SelectJob(job.name, checkbox.checked);
+    };
+    var item = document.createElement('li');
+    item.appendChild(checkbox);
+    item.appendChild(document.createTextNode(' ' + job.name));
+    return item;
+}
+
+function SelectedCheckbox(item) {
+    return item.getElementsByTagName('input')[0];
+}
+
+function SelectJob(name, checked) {
+    var item = document.getElementById(name);
+    if (item == null) {
+        if (!checked) {
+            return;
+        }
+        item = CreateSelectedJob(name);
+        document.getElementById('allJobs').appendChild(item);
+    }
+    SelectedCheckbox(item).checked = checked;
+}
+
+function CreateSelectedJob(name) {
+    var list = document.getElementById('allJobs');
+    var item = document.createElement('li');
+    item.id = name;
+
+    var checkbox = document.createElement('input');
+    checkbox.type = 'checkbox';
+    checkbox.name = name;
+    checkbox.onclick = function() {
+        UpdateJobOptions(name);
+    };
+    item.appendChild(checkbox);
+
+    var label = document.createElement('label');
+    label.onclick = function() {
+        UpdateJobOptions(name);
+    };
+    var span = document.createElement('span');
+    span.id = 'selectedJob-' + name;
+    span.appendChild(document.createTextNode(name));
+    label.appendChild(span);
+    item.appendChild(label);
+
+    var priority = document.createElement('input');
+    priority.type = 'hidden';
+    priority.id = name + '_priority';
+    priority.name = name + '_priority';
+    priority.value = list.getElementsByTagName('li').length;
+    item.appendChild(priority);
+    return item;
+}
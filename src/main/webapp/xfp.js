@@ -1,108 +1,495 @@
-/**
- * Applys best fit (fill box keeping aspect ratio) images
- *
- * Checks all image tags of imgBestFit class for height/width
- * and sets CSS for the smaller to 100% and clears the other
- * keeping aspect-ratio of image
- *
- * @return None
- */
-function checkImgBestFit () {
-
-	var imgList = $$('.imgBestFit');
-	for (var x=0; x<imgList.length; x++)
-	{
-		if (imgList[x].parentElement.offsetWidth < imgList[x].parentElement.offsetHeight)
-		{
-			imgList[x].style.width  = "100%";
-			imgList[x].style.height = "";
-		} else {
-			imgList[x].style.width  = "";
-			imgList[x].style.height = "100%";	
-		}
-	}
-}
-
-/**
- * Applys fade to all fadeHiddenText classed tags
- *
- * checkTextFadeouts iterates through all tags of fadeHiddenText class.
- * Each is checked if scroll width > visible (overflowed) and if so any
- * fadeHiddenTextImg class <img> tags under it are made visible.  
- * Otherwise these img's are hidden (display:none).
- *
- * @return None
- */
-function checkTextFadeouts () {
-
-	var fadersList = $$('.fadeHiddenText');
-	for (var x=0; x<fadersList.length; x++)
-	{
-		var applyFade = (fadersList[x].scrollWidth > fadersList[x].offsetWidth);
-		
-		var imgList = fadersList[x].select('img.fadeHiddenTextImg');
-		for (var y=0; y<imgList.length; y++)
-		{
-			if (applyFade)
-			{
-				imgList[y].style.display = "";
-			} else {
-				imgList[y].style.display = "none";
-			}
-		}
-	}
-}
-
-/**
- * Applys fade to all fadeHiddenText classed tags and sets default CSS
- *
- * Default CSS properties are applied to fadeHiddenText and fadeHiddenTextImg
- * class elements since the plugin doesn't have its own .css style to apply.
- *
- * @return None
- */
-function checkTextFadeoutsInit () {
-
-	var fadersList = $$('.fadeHiddenText');
-	for (var x=0; x<fadersList.length; x++)
-	{	
-		fadersList[x].style.position = "relative";
-
-		var imgList = fadersList[x].select('img.fadeHiddenTextImg');
-		for (var y=0; y<imgList.length; y++)
-		{
-			imgList[y].style.position = "absolute"; 
-			imgList[y].style.right    = "0px"; 
-			imgList[y].style.top      = "0px"; 
-			imgList[y].style.height   = "100%";
-		}
-	}
-	
-	checkTextFadeouts();
-}
-
-
-Behaviour.addLoadEvent(function(){
-	//Remove side panel from display (since XFP displays as a "full" screen)
-	document.getElementById("side-panel").style.display="none";
-	
-	//Initialize text faders
-	checkTextFadeoutsInit();
-	Event.observe(window, "resize", checkTextFadeouts);
-		
-	//Resize images to fit given blocks
-	checkImgBestFit();
-	Event.observe(window, "resize", checkImgBestFit);
-
-    // automatically update page every 10 seconds via AJAX
-    var refreshTime = $$(".conf-refresh-time")[0].innerHTML;
-    var url = window.location.href;
-    var refreshUrl = url + (url.charAt(url.length - 1) == "/" ? "" : "/") + "headlessdisplay";
-    if (url.lastIndexOf("?") >= 0) {
-        refreshUrl = url.substring(0, url.lastIndexOf("?"));
-        refreshUrl = refreshUrl + (refreshUrl.charAt(refreshUrl.length - 1) == "/" ? "" : "/") + "headlessdisplay";
-    }
-    new Ajax.PeriodicalUpdater("xfdisplay-dashboard", refreshUrl, {
-        method: 'get', frequency: refreshTime
-    });
-});
+/**
+ * Applys best fit (fill box keeping aspect ratio) images
+ *
+ * Checks all image tags of imgBestFit class for height/width
+ * and sets CSS for the smaller to 100% and clears the other
+ * keeping aspect-ratio of image
+ *
+ * @return None
+ */
+function checkImgBestFit () {
+
+	var imgList = $$('.imgBestFit');
+	for (var x=0; x<imgList.length; x++)
+	{
+		if (imgList[x].parentElement.offsetWidth < imgList[x].parentElement.offsetHeight)
+		{
+			imgList[x].style.width  = "100%";
+			imgList[x].style.height = "";
+		} else {
+			imgList[x].style.width  = "";
+			imgList[x].style.height = "100%";	
+		}
+	}
+}
+
+/**
+ * Applys fade to all fadeHiddenText classed tags
+ *
+ * checkTextFadeouts iterates through all tags of fadeHiddenText class.
+ * Each is checked if scroll width > visible (overflowed) and if so any
+ * fadeHiddenTextImg class <img> tags under it are made visible.  
+ * Otherwise these img's are hidden (display:none).
+ *
+ * @return None
+ */
+function checkTextFadeouts () {
+
+	var fadersList = $$('.fadeHiddenText');
+	for (var x=0; x<fadersList.length; x++)
+	{
+		var applyFade = (fadersList[x].scrollWidth > fadersList[x].offsetWidth);
+		
+		var imgList = fadersList[x].select('img.fadeHiddenTextImg');
+		for (var y=0; y<imgList.length; y++)
+		{
+			if (applyFade)
+			{
+				imgList[y].style.display = "";
+			} else {
+				imgList[y].style.display = "none";
+			}
+		}
+	}
+}
+
+/**
+ * Applys fade to all fadeHiddenText classed tags and sets default CSS
+ *
+ * Default CSS properties are applied to fadeHiddenText and fadeHiddenTextImg
+ * class elements since the plugin doesn't have its own .css style to apply.
+ *
+ * @return None
+ */
+function checkTextFadeoutsInit () {
+
+	var fadersList = $$('.fadeHiddenText');
+	for (var x=0; x<fadersList.length; x++)
+	{	
+		fadersList[x].style.position = "relative";
+
+		var imgList = fadersList[x].select('img.fadeHiddenTextImg');
+		for (var y=0; y<imgList.length; y++)
+		{
+			imgList[y].style.position = "absolute"; 
+			imgList[y].style.right    = "0px"; 
+			imgList[y].style.top      = "0px"; 
+			imgList[y].style.height   = "100%";
+		}
+	}
+	
+	checkTextFadeouts();
+}
+
+
+Behaviour.addLoadEvent(function(){
+	//Remove side panel from display (since XFP displays as a "full" screen)
+	document.getElementById("side-panel").style.display="none";
+	
+	//Initialize text faders
+	checkTextFadeoutsInit();
+	Event.observe(window, "resize", checkTextFadeouts);
+		
+	//Resize images to fit given blocks
+	checkImgBestFit();
+	Event.observe(window, "resize", checkImgBestFit);
+
+    // automatically update page every 10 seconds via AJAX
+    var refreshTime = $$(".conf-refresh-time")[0].innerHTML;
+    var url = window.location.href;
+    var baseUrl = url + (url.charAt(url.length - 1) == "/" ? "" : "/");
+    if (url.lastIndexOf("?") >= 0) {
+        baseUrl = url.substring(0, url.lastIndexOf("?"));
+        baseUrl = baseUrl + (baseUrl.charAt(baseUrl.length - 1) == "/" ? "" : "/");
+    }
+    var refreshUrl = baseUrl + "headlessdisplay";
+    var deltaUrl = baseUrl + "delta";
+    var jsonUrl = baseUrl + "panelJson";
+    panelVersion = $$(".conf-panel-version")[0].innerHTML.strip();
+    var update = function() {
+        updatePanel(deltaUrl, refreshUrl);
+    };
+    var clientRenderer = $$(".conf-client-renderer")[0];
+    if (clientRenderer && clientRenderer.innerHTML.strip() == "true") {
+        update = function() {
+            updatePanelJson(jsonUrl, refreshUrl);
+        };
+    }
+    var pushUpdates = $$(".conf-push-updates")[0];
+    if (pushUpdates && pushUpdates.innerHTML.strip() == "true") {
+        startPushUpdates(baseUrl + "events", update, refreshTime);
+    } else {
+        startPolling(update, refreshTime);
+    }
+});
+
+/**
+ * Version of the panel currently displayed, as reported by the server
+ */
+var panelVersion = -1;
+
+/**
+ * ETag of the last panel loaded from headlessdisplay
+ */
+var panelETag = null;
+
+/**
+ * Fetches the tiles changed since panelVersion and patches them into the panel
+ *
+ * Reloads the whole panel instead when the delta can't be applied.
+ *
+ * @return None
+ */
+function updatePanel (deltaUrl, refreshUrl) {
+    new Ajax.Request(deltaUrl + "?since=" + panelVersion, {
+        method: 'get',
+        onSuccess: function(rsp) {
+            if (rsp.status == 304) {
+                return;
+            }
+            if (!applyDelta(rsp.responseText)) {
+                panelVersion = -1;
+                reloadPanel(refreshUrl);
+            }
+        }
+    });
+}
+
+/**
+ * Reloads the whole panel, unless the server reports it has not changed
+ *
+ * @return None
+ */
+function reloadPanel (refreshUrl) {
+    var headers = {};
+    if (panelETag != null) {
+        headers["If-None-Match"] = panelETag;
+    }
+    new Ajax.Request(refreshUrl, {
+        method: 'get',
+        requestHeaders: headers,
+        onSuccess: function(rsp) {
+            if (rsp.status == 304) {
+                return;
+            }
+            panelETag = rsp.getHeader("ETag");
+            $("xfdisplay-dashboard").update(rsp.responseText);
+        }
+    });
+}
+
+/**
+ * Applies a delta returned by the server to the displayed tiles
+ *
+ * Unchanged tiles are kept, changed ones are replaced, removed ones are dropped
+ * and all of them are put in the order given by the server.
+ *
+ * @return true if the delta could be applied
+ */
+function applyDelta (html) {
+    var holder = document.createElement("div");
+    holder.innerHTML = html;
+    var delta = $(holder).select(".xfp-delta")[0];
+    var dashboard = $$("#xfdisplay-dashboard .dashboard")[0];
+    if (!delta || !dashboard) {
+        return false;
+    }
+
+    var tiles = {};
+    dashboard.select("a.xfp-tile").each(function(tile) {
+        tiles[tile.getAttribute("job")] = tile;
+    });
+    delta.select("a.xfp-tile").each(function(tile) {
+        tiles[tile.getAttribute("job")] = tile;
+    });
+
+    var order = delta.getAttribute("order");
+    var names = (order == "") ? [] : order.split("|");
+    for (var x=0; x<names.length; x++)
+    {
+        if (!tiles[names[x]]) {
+            return false;
+        }
+    }
+
+    dashboard.select("a.xfp-tile").each(function(tile) {
+        tile.remove();
+    });
+    for (var x=0; x<names.length; x++)
+    {
+        dashboard.appendChild(tiles[names[x]]);
+    }
+    panelVersion = delta.getAttribute("version");
+
+    var style = delta.select("style.xfp-style")[0];
+    if (style) {
+        applyStylesheet(style.innerHTML);
+    }
+    checkTextFadeouts();
+    checkImgBestFit();
+    return true;
+}
+
+/**
+ * Updates the panel every refreshTime seconds
+ *
+ * @return None
+ */
+function startPolling (update, refreshTime) {
+    new PeriodicalExecuter(update, refreshTime);
+}
+
+/**
+ * Updates the panel whenever the server reports a change
+ *
+ * The browser reconnects on its own when the stream ends, sending back the id of the
+ * last update it saw. Falls back to polling if the stream can't be opened at all, or
+ * if the server is busy with too many streams.
+ *
+ * @return None
+ */
+function startPushUpdates (eventsUrl, update, refreshTime) {
+    if (typeof(EventSource) == "undefined") {
+        startPolling(update, refreshTime);
+        return;
+    }
+
+    var opened = false;
+    var source = new EventSource(eventsUrl);
+    source.onopen = function() {
+        opened = true;
+    };
+    source.onerror = function() {
+        if (!opened || source.readyState == EventSource.CLOSED) {
+            source.close();
+            startPolling(update, refreshTime);
+        }
+    };
+    source.addEventListener("update", update, false);
+    source.addEventListener("busy", function() {
+        source.close();
+        startPolling(update, refreshTime);
+    }, false);
+}
+
+/**
+ * ETag of the last panel loaded from panelJson
+ */
+var panelJsonETag = null;
+
+/**
+ * Fetches the panel as JSON and renders it, unless the server reports it has not changed
+ *
+ * Reloads the whole panel instead when there is no board to render into.
+ *
+ * @return None
+ */
+function updatePanelJson (jsonUrl, refreshUrl) {
+    var headers = {};
+    if (panelJsonETag != null) {
+        headers["If-None-Match"] = panelJsonETag;
+    }
+    new Ajax.Request(jsonUrl, {
+        method: 'get',
+        requestHeaders: headers,
+        onSuccess: function(rsp) {
+            if (rsp.status == 304) {
+                return;
+            }
+            panelJsonETag = rsp.getHeader("ETag");
+            if (!renderPanel(rsp.responseText.evalJSON())) {
+                reloadPanel(refreshUrl);
+            }
+        }
+    });
+}
+
+/**
+ * Replaces the tiles of the board with the ones of a panel returned by panelJson
+ *
+ * @return true if there was a board to render into
+ */
+function renderPanel (panel) {
+    var dashboard = $$("#xfdisplay-dashboard .dashboard")[0];
+    if (!dashboard) {
+        return false;
+    }
+    applyStylesheet(panel.stylesheet);
+    var html = [];
+    for (var x=0; x<panel.jobs.length; x++)
+    {
+        renderTile(html, panel.rootUrl, panel.view, panel.jobs[x]);
+    }
+    dashboard.update(html.join(""));
+
+    checkTextFadeoutsInit();
+    checkImgBestFit();
+    return true;
+}
+
+/**
+ * Escapes text for use in markup, including attribute values
+ *
+ * @return the escaped text
+ */
+function xfpEscape (value) {
+    if (value == null) {
+        return "";
+    }
+    return String(value).replace(/&/g, "&amp;").replace(/</g, "&lt;").replace(/>/g, "&gt;").replace(/"/g, "&quot;");
+}
+
+/**
+ * Replaces the stylesheet of the panel, see XFPanelStylesheet
+ *
+ * @return None
+ */
+function applyStylesheet (css) {
+    var style = $$("#xfdisplay-dashboard style.xfp-style")[0];
+    if (style && style.innerHTML != css) {
+        var replacement = document.createElement("style");
+        replacement.setAttribute("type", "text/css");
+        replacement.className = "xfp-style";
+        if (replacement.styleSheet) {
+            replacement.styleSheet.cssText = css;
+        } else {
+            replacement.appendChild(document.createTextNode(css));
+        }
+        style.parentNode.replaceChild(replacement, style);
+    }
+}
+
+/**
+ * Appends the markup of a tile to html, as job.jelly and XFPanelRenderer write it
+ *
+ * @return None
+ */
+function renderTile (html, rootUrl, view, job) {
+    var image = function(name) {
+        return '<img src="' + xfpEscape(rootUrl) + '/plugin/xfpanel/' + name + '" class="imgBestFit"/>';
+    };
+
+    html.push('<a href="', xfpEscape(rootUrl), '/', xfpEscape(job.url), '" class="xfp-tile" job="', xfpEscape(job.fullName), '">');
+    html.push('<div class="xfp-box xfp-', xfpEscape(job.status), '" tooltip="', xfpEscape(job.name), '">');
+
+    // right side bar
+    html.push(job.failCount > 0 ? '<div class="xfp-right xfp-failing">' : '<div class="xfp-right">');
+    if (job.broken) {
+        if (view.showClaimInfo) {
+            if (!job.claimed && view.showWarningIcon) {
+                html.push(image("caution.png"));
+            }
+            if (job.claimed) {
+                html.push(image("claimed.png"));
+            }
+        } else if (view.showWarningIcon) {
+            html.push(image("caution.png"));
+        }
+    } else if (view.claimPluginInstalled && view.replaceNumberOfTestCases) {
+        if (job.claimed) {
+            html.push(image("claimed.png"));
+        } else {
+            html.push(xfpEscape(job.numberOfTests));
+            if (!job.successful) {
+                html.push('<div class="xfp-unclaimed">#of unclaimed</div>');
+            }
+        }
+    } else {
+        html.push(xfpEscape(job.numberOfTests));
+    }
+    html.push('<br/></div>');
+
+    // left side bar
+    html.push('<div class="xfp-left"><div class="fadeHiddenText xfp-name"><span><u>', xfpEscape(job.name), '</u></span>');
+    if (job.stale) {
+        html.push('<span title="Still computing, showing the previous state"> (stale)</span>');
+    }
+    html.push('</div><div>');
+
+    if (!job.building) {
+        var completion = job.completion || "";
+        html.push('<div class="fadeHiddenText xfp-info">');
+        if (job.broken) {
+            var responsibles = xfpEscape(view.responsiblesTopic) + ' ' + xfpEscape(job.culprits);
+            var normalClaim = !(job.showResponsibles && view.replaceResponsibles && view.showClaimInfo);
+            if (normalClaim) {
+                if (job.showResponsibles) {
+                    html.push('<div class="xfp-line">', responsibles, '</div>');
+                }
+                if (view.showClaimInfo) {
+                    html.push('<div class="xfp-claim">', job.claimed ? 'Claimed by: ' + xfpEscape(job.claimInfo) : '', '</div>');
+                }
+            } else if (job.claimed) {
+                html.push('<div class="xfp-claim">Claimed by: ', xfpEscape(job.claimInfo), '</div>');
+            } else {
+                html.push('<div class="xfp-line">', responsibles, '</div>');
+            }
+            if (view.showTimeStamp) {
+                html.push('<div>', completion != "" ? 'Built ' + xfpEscape(completion) + ' ago' : xfpEscape(view.lastBuildTimePreFix) + ' -', '</div>');
+            }
+        } else {
+            html.push('<div>');
+            if (view.showZeroTestCounts || job.testCount > 0) {
+                html.push(xfpEscape(job.successPercentage), ' ', job.successCount, '/', job.testCount);
+            }
+            if (job.diff) {
+                html.push('(<font color="', xfpEscape(job.diffColor), '">', xfpEscape(job.diff), '</font>)');
+            }
+            if (job.queueNumber) {
+                html.push('<span class="xfp-queued">Queued: #', job.queueNumber, '</span>');
+            }
+            html.push('</div>');
+            if (!job.queueNumber && view.showTimeStamp) {
+                html.push('<div>', xfpEscape(view.lastBuildTimePreFix), ' ', xfpEscape(completion), completion != "" ? ' ago' : '', '</div>');
+            }
+            if (view.showClaimInfoInUnstable) {
+                html.push('<div class="xfp-claim">', xfpEscape(job.claimInfoByTestCases), '</div>');
+            }
+        }
+        html.push('</div>');
+    } else {
+        html.push('<div class="fadeHiddenText xfp-build">');
+        var builds = job.builds || [];
+        for (var x=0; x<builds.length; x++)
+        {
+            var progress = builds[x].progress;
+            html.push('<div class="xfp-run"><span class="xfp-label">BUILD ', xfpEscape(builds[x].name), ' ', progress, '%</span>');
+            html.push('<span class="xfp-bar"><table class="progress-bar ', builds[x].stuck ? 'red' : '', '"><tbody><tr>');
+            if (progress < 0) {
+                html.push('<td class="progress-bar-left" style="width:100%;"></td>');
+            } else {
+                html.push('<td class="progress-bar-done" style="width:', progress, '%;"></td>');
+                html.push('<td class="progress-bar-left" style="width:', 100 - progress, '%;"></td>');
+            }
+            html.push('</tr></tbody></table></span></div>');
+        }
+        if (job.unstable && view.showClaimInfoInUnstable) {
+            html.push('<div class="xfp-claim">', xfpEscape(job.claimInfoByTestCases), '</div>');
+        }
+        html.push('</div>');
+    }
+
+    if (view.showBrokenBuildCount && job.broken) {
+        html.push('<div><BLOCKQUOTE><i>', job.failedBuilds, ' failed build(s) since last successful build</i></BLOCKQUOTE></div>');
+    }
+    if (view.showTrend && job.trend) {
+        var trend = job.trend;
+        html.push('<div class="xfp-trend"><span class="xfp-bars">');
+        for (var x=0; x<trend.classes.length; x++)
+        {
+            html.push('<span class="', xfpEscape(trend.classes[x]), '"></span>');
+        }
+        html.push('</span>');
+        if (trend.buildCount > 0) {
+            html.push('fail ', xfpEscape(trend.failureRate));
+        }
+        if (trend.redStreak) {
+            html.push(', red for ', xfpEscape(trend.timeSinceFirstFailure), ' (', xfpEscape(trend.redStreakLabel), ')');
+        }
+        if (trend.meanTimeToRecovery) {
+            html.push(', MTTR ', xfpEscape(trend.meanTimeToRecovery));
+        }
+        html.push('</div>');
+    }
+    html.push('</div></div></div></a>');
+}
@@ -2,9 +2,19 @@ package maps.hudson.plugin.xfpanel;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jenkins.model.Jenkins;
 import hudson.DescriptorExtensionList;
@@ -16,8 +26,12 @@ import hudson.model.FreeStyleBuild;
 import hudson.model.AbstractBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Job;
+import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.User;
+import hudson.plugins.claim.ClaimBuildAction;
 import hudson.plugins.claim.ClaimTestAction;
+import hudson.scm.ChangeLogSet;
 import hudson.tasks.junit.TestResult;
 import hudson.tasks.junit.TestResultAction;
 import hudson.tasks.junit.CaseResult;
@@ -29,7 +43,9 @@ import maps.hudson.plugin.xfpanel.XFPanelView.XFPanelColors;
 import org.easymock.ConstructorArgs;
 import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
+import org.easymock.IAnswer;
 import org.easymock.IMockBuilder;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.api.easymock.PowerMock;
@@ -37,9 +53,21 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest( {TestResult.class, XFPanelEntry.class, XFPanelColors.class, CaseResult.class })
+@PrepareForTest( {TestResult.class, XFPanelEntry.class, XFPanelColors.class, CaseResult.class, Run.class })
 public class XFPanelEntryTest {
 
+	private Jenkins jenkins;
+
+	@Before
+	public void setUp() throws Exception {
+		// mocked builds all share the same job name and number
+		XFPanelClaimIndex.clear();
+		this.jenkins = PowerMock.createNiceMock(Jenkins.class);
+		Field field = Jenkins.class.getDeclaredField("theInstance");
+		field.setAccessible(true);
+		field.set(null, this.jenkins);
+	}
+
 	@Test
 	public void testOneClaimed() throws Exception {
 		XFPanelEntry xfPanelEntry = prepareData(3, true, true);
@@ -79,6 +107,603 @@ public class XFPanelEntryTest {
 		
 	}
 
+	@Test
+	public void testBuildAccessorsCalledAtMostOnce() throws Exception {
+		XFPanelView view = mockView(true);
+		view.BlameState = XFPanelView.Blame.EVERYINVOLVED;
+
+		Map<String, AtomicInteger> calls = new HashMap<String, AtomicInteger>();
+		AbstractBuild lastBuild = PowerMock.createNiceMock(AbstractBuild.class);
+		AbstractTestResultAction atra = PowerMock.createNiceMock(AbstractTestResultAction.class);
+		EasyMock.expect(atra.getTotalCount()).andReturn(10).anyTimes();
+		EasyMock.expect(atra.getFailCount()).andReturn(2).anyTimes();
+		EasyMock.expect(lastBuild.getAction(AbstractTestResultAction.class)).andAnswer(counting(calls, "getAction(AbstractTestResultAction)", atra)).anyTimes();
+		EasyMock.expect(lastBuild.getActions(TestResultAction.class)).andAnswer(counting(calls, "getActions(TestResultAction)", new ArrayList<TestResultAction>())).anyTimes();
+		EasyMock.expect(lastBuild.getActions(ClaimBuildAction.class)).andAnswer(counting(calls, "getActions(ClaimBuildAction)", new ArrayList<ClaimBuildAction>())).anyTimes();
+		EasyMock.expect(lastBuild.getCulprits()).andAnswer(counting(calls, "getCulprits", new HashSet<User>())).anyTimes();
+
+		Job job = mockJob("job");
+		EasyMock.expect(job.getIconColor()).andReturn(BallColor.RED).anyTimes();
+		EasyMock.expect(job.getLastBuild()).andAnswer(counting(calls, "getLastBuild", lastBuild)).anyTimes();
+		EasyMock.expect(job.getLastSuccessfulBuild()).andAnswer(counting(calls, "getLastSuccessfulBuild", lastBuild)).anyTimes();
+		EasyMock.expect(job.getLastCompletedBuild()).andAnswer(counting(calls, "getLastCompletedBuild", lastBuild)).anyTimes();
+		EasyMock.expect(job.getLastStableBuild()).andAnswer(counting(calls, "getLastStableBuild", lastBuild)).anyTimes();
+		EasyMock.expect(job.getLastFailedBuild()).andAnswer(counting(calls, "getLastFailedBuild", lastBuild)).anyTimes();
+		EasyMock.expect(job.getFirstBuild()).andAnswer(counting(calls, "getFirstBuild", lastBuild)).anyTimes();
+		PowerMock.replayAll();
+
+		XFPanelEntry xfPanelEntry = new XFPanelEntry(view, job);
+		xfPanelEntry.init();
+		for (int i = 0; i < 3; i++) {
+			xfPanelEntry.getTestCount();
+			xfPanelEntry.getFailCount();
+			xfPanelEntry.getSuccessCount();
+			xfPanelEntry.getSuccessPercentage();
+			xfPanelEntry.getDiff();
+			xfPanelEntry.getDiffColor();
+			xfPanelEntry.isClaimed();
+			xfPanelEntry.getClaimInfo();
+			xfPanelEntry.getClaimInfoByTestCases();
+			xfPanelEntry.getNumClaimedTests();
+			xfPanelEntry.getNumberOfTests();
+			xfPanelEntry.isBuildSuccessful();
+			xfPanelEntry.isBuildUnstable();
+			xfPanelEntry.getNumberOfFailedBuilds();
+			xfPanelEntry.getCulprits();
+			xfPanelEntry.getLastBuild();
+			xfPanelEntry.getStateKey();
+		}
+
+		assertEquals("2", xfPanelEntry.getNumberOfTests());
+		assertEquals(8, xfPanelEntry.getSuccessCount());
+		assertEquals(10, xfPanelEntry.getTestCount());
+		for (Map.Entry<String, AtomicInteger> call : calls.entrySet()) {
+			assertTrue(call.getKey() + " called " + call.getValue() + " times", call.getValue().get() <= 1);
+		}
+		assertTrue(calls.containsKey("getLastBuild"));
+		assertTrue(calls.containsKey("getAction(AbstractTestResultAction)"));
+	}
+
+	@Test
+	public void testClaimSummaryComputedOncePerBuild() throws Exception {
+		Map<String, AtomicInteger> calls = new HashMap<String, AtomicInteger>();
+		Job job = mockJob("job");
+		AbstractBuild build = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(build.getNumber()).andReturn(5).anyTimes();
+
+		List<CaseResult> failed = new ArrayList<CaseResult>();
+		for (String claimer : new String[] { "alice", "bob", "alice", null }) {
+			CaseResult cr = PowerMock.createNiceMock(CaseResult.class);
+			ClaimTestAction cta = PowerMock.createNiceMock(ClaimTestAction.class);
+			EasyMock.expect(cta.isClaimed()).andReturn(claimer != null).anyTimes();
+			EasyMock.expect(cta.getClaimedBy()).andReturn(claimer).anyTimes();
+			EasyMock.expect(cr.getTestAction(ClaimTestAction.class)).andReturn(cta).anyTimes();
+			failed.add(cr);
+		}
+		TestResult testResult = PowerMock.createNiceMock(TestResult.class);
+		EasyMock.expect(testResult.getFailedTests()).andAnswer(counting(calls, "getFailedTests", failed)).anyTimes();
+		TestResultAction tra = PowerMock.createNiceMock(TestResultAction.class);
+		EasyMock.expect(tra.getResult()).andReturn(testResult).anyTimes();
+		List<TestResultAction> tral = new ArrayList<TestResultAction>();
+		tral.add(tra);
+		EasyMock.expect(build.getActions(TestResultAction.class)).andReturn(tral).anyTimes();
+		PowerMock.replayAll();
+
+		XFPanelClaimIndex.Summary summary = XFPanelClaimIndex.get(job, build);
+		assertEquals(3, summary.getClaimed());
+		assertEquals(2, summary.getClaimers().size());
+		assertSame(summary, XFPanelClaimIndex.get(job, build));
+		assertEquals(1, calls.get("getFailedTests").get());
+
+		XFPanelClaimIndex.clear();
+		assertEquals(3, XFPanelClaimIndex.get(job, build).getClaimed());
+		assertEquals(2, calls.get("getFailedTests").get());
+	}
+
+	@Test
+	public void testTestCountsServedFromJobIndex() throws Exception {
+		XFPanelView view = mockView(false);
+
+		Map<String, AtomicInteger> calls = new HashMap<String, AtomicInteger>();
+		AbstractBuild previousBuild = PowerMock.createNiceMock(AbstractBuild.class);
+		AbstractTestResultAction previousTests = PowerMock.createNiceMock(AbstractTestResultAction.class);
+		EasyMock.expect(previousTests.getTotalCount()).andReturn(9).anyTimes();
+		EasyMock.expect(previousTests.getFailCount()).andReturn(3).anyTimes();
+		EasyMock.expect(previousBuild.getNumber()).andReturn(1).anyTimes();
+		EasyMock.expect(previousBuild.getResult()).andReturn(Result.UNSTABLE).anyTimes();
+		EasyMock.expect(previousBuild.getAction(AbstractTestResultAction.class)).andAnswer(counting(calls, "previous", previousTests)).anyTimes();
+
+		AbstractBuild lastBuild = PowerMock.createNiceMock(AbstractBuild.class);
+		AbstractTestResultAction tests = PowerMock.createNiceMock(AbstractTestResultAction.class);
+		EasyMock.expect(tests.getTotalCount()).andReturn(10).anyTimes();
+		EasyMock.expect(tests.getFailCount()).andReturn(2).anyTimes();
+		EasyMock.expect(lastBuild.getNumber()).andReturn(2).anyTimes();
+		EasyMock.expect(lastBuild.getResult()).andReturn(Result.UNSTABLE).anyTimes();
+		EasyMock.expect(lastBuild.getPreviousBuild()).andAnswer(counting(calls, "getPreviousBuild", previousBuild)).anyTimes();
+		EasyMock.expect(lastBuild.getAction(AbstractTestResultAction.class)).andAnswer(counting(calls, "last", tests)).anyTimes();
+
+		Job job = mockJob("job");
+		EasyMock.expect(job.getLastBuild()).andReturn(lastBuild).anyTimes();
+		EasyMock.expect(job.getLastCompletedBuild()).andReturn(lastBuild).anyTimes();
+		EasyMock.expect(job.getLastSuccessfulBuild()).andReturn(lastBuild).anyTimes();
+		PowerMock.replayAll();
+
+		Map<String, Integer> filled = null;
+		for (int i = 0; i < 3; i++) {
+			XFPanelEntry xfPanelEntry = new XFPanelEntry(view, job);
+			xfPanelEntry.init();
+			assertEquals(10, xfPanelEntry.getTestCount());
+			assertEquals(2, xfPanelEntry.getFailCount());
+			assertEquals("+2", xfPanelEntry.getDiff());
+			assertEquals(0, xfPanelEntry.getNumberOfFailedBuilds());
+			if (filled == null) {
+				filled = snapshot(calls);
+			}
+		}
+		// filled once from the builds, then answered from the index
+		assertEquals(1, calls.get("last").get());
+		assertEquals(1, calls.get("previous").get());
+		assertEquals(filled, snapshot(calls));
+	}
+
+	@Test
+	public void testTrendFromJobIndex() throws Exception {
+		XFPanelView view = mockView(false);
+
+		Result[] results = { Result.SUCCESS, Result.FAILURE, Result.FAILURE, Result.UNSTABLE, Result.ABORTED, Result.FAILURE };
+		AbstractBuild previous = null;
+		for (int i = 0; i < results.length; i++) {
+			AbstractBuild build = PowerMock.createNiceMock(AbstractBuild.class);
+			EasyMock.expect(build.getNumber()).andReturn(i + 1).anyTimes();
+			EasyMock.expect(build.getResult()).andReturn(results[i]).anyTimes();
+			EasyMock.expect(build.getPreviousBuild()).andReturn(previous).anyTimes();
+			previous = build;
+		}
+		Job job = mockJob("job");
+		EasyMock.expect(job.getLastBuild()).andReturn(previous).anyTimes();
+		EasyMock.expect(job.getLastCompletedBuild()).andReturn(previous).anyTimes();
+		PowerMock.replayAll();
+
+		XFPanelEntry xfPanelEntry = new XFPanelEntry(view, job);
+		xfPanelEntry.init();
+		XFPanelTrend trend = xfPanelEntry.getTrend();
+		assertEquals(Arrays.asList(results), trend.getResults());
+		assertEquals(6, trend.getBuildCount());
+		assertEquals(3, trend.getFailureCount());
+		assertEquals(1, trend.getRedStreak());
+		assertEquals("1", trend.getRedStreakLabel());
+		assertFalse("".equals(trend.getMeanTimeToRecovery()));
+		assertFalse("".equals(trend.getTimeSinceFirstFailure()));
+	}
+
+	@Test
+	public void testRedStreakLongerThanTrend() throws Exception {
+		AbstractBuild previous = null;
+		for (int number = 1; number <= XFPanelJobIndex.TREND_SIZE + 5; number++) {
+			AbstractBuild build = PowerMock.createNiceMock(AbstractBuild.class);
+			EasyMock.expect(build.getNumber()).andReturn(number).anyTimes();
+			// one recovery, before the builds the trend covers
+			EasyMock.expect(build.getResult()).andReturn(number == 2 ? Result.SUCCESS : Result.FAILURE).anyTimes();
+			EasyMock.expect(build.getPreviousBuild()).andReturn(previous).anyTimes();
+			previous = build;
+		}
+		Job job = mockJob("job");
+		PowerMock.replayAll();
+
+		XFPanelTrend trend = XFPanelJobIndex.get(job, previous).getTrend();
+		assertEquals(XFPanelJobIndex.TREND_SIZE, trend.getBuildCount());
+		assertEquals(XFPanelJobIndex.TREND_SIZE, trend.getRedStreak());
+		assertEquals("\u2265" + XFPanelJobIndex.TREND_SIZE, trend.getRedStreakLabel());
+		assertTrue(trend.getTimeSinceFirstFailure().startsWith("\u2265"));
+		assertEquals("", trend.getMeanTimeToRecovery());
+	}
+
+	@Test
+	public void testDeletingOldBuildsKeepsJobIndex() throws Exception {
+		AbstractBuild previous = null;
+		for (int number = 10; number <= 15; number++) {
+			AbstractBuild build = PowerMock.createNiceMock(AbstractBuild.class);
+			EasyMock.expect(build.getNumber()).andReturn(number).anyTimes();
+			EasyMock.expect(build.getResult()).andReturn(Result.SUCCESS).anyTimes();
+			EasyMock.expect(build.getPreviousBuild()).andReturn(previous).anyTimes();
+			previous = build;
+		}
+		Job job = mockJob("job");
+		AbstractBuild rotated = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(rotated.getNumber()).andReturn(3).anyTimes();
+		EasyMock.expect(rotated.getParent()).andReturn(job).anyTimes();
+		AbstractBuild held = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(held.getNumber()).andReturn(12).anyTimes();
+		EasyMock.expect(held.getParent()).andReturn(job).anyTimes();
+
+		File root = File.createTempFile("xfpanel", "job");
+		assertTrue(root.delete() && root.mkdir());
+		Job unindexed = mockJob("unindexed");
+		EasyMock.expect(unindexed.getRootDir()).andReturn(root).anyTimes();
+		AbstractBuild unindexedBuild = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(unindexedBuild.getNumber()).andReturn(1).anyTimes();
+		EasyMock.expect(unindexedBuild.getParent()).andReturn(unindexed).anyTimes();
+		PowerMock.replayAll();
+
+		XFPanelJobIndex index = XFPanelJobIndex.get(job, previous);
+		assertEquals(15, index.getLastNumber());
+		XFPanelJobIndex.IndexRunListener listener = new XFPanelJobIndex.IndexRunListener();
+		listener.onDeleted(rotated);
+		assertEquals(15, index.getLastNumber());
+		listener.onDeleted(held);
+		assertEquals(-1, index.getLastNumber());
+
+		try {
+			listener.onDeleted(unindexedBuild);
+			assertFalse(new File(root, XFPanelJobIndex.FILE_NAME).exists());
+		} finally {
+			root.delete();
+		}
+	}
+
+	@Test
+	public void testLightweightLoadsLastBuildOnly() throws Exception {
+		XFPanelView view = mockView(true);
+		view.BlameState = XFPanelView.Blame.EVERYINVOLVED;
+		EasyMock.expect(view.getLightweight()).andReturn(true).anyTimes();
+
+		// any call on an older build fails the test
+		AbstractBuild olderBuild = PowerMock.createMock(AbstractBuild.class);
+		Map<String, AtomicInteger> loaded = new HashMap<String, AtomicInteger>();
+
+		AbstractBuild building = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(building.getNumber()).andReturn(8).anyTimes();
+		EasyMock.expect(building.isBuilding()).andReturn(true).anyTimes();
+		EasyMock.expect(building.getPreviousBuild()).andAnswer(counting(loaded, "getPreviousBuild", olderBuild)).anyTimes();
+		EasyMock.expect(building.getPreviousBuildInProgress()).andAnswer(counting(loaded, "getPreviousBuildInProgress", olderBuild)).anyTimes();
+		EasyMock.expect(building.getPreviousCompletedBuild()).andAnswer(counting(loaded, "getPreviousCompletedBuild", olderBuild)).anyTimes();
+		EasyMock.expect(building.getPreviousNotFailedBuild()).andAnswer(counting(loaded, "getPreviousNotFailedBuild", olderBuild)).anyTimes();
+		EasyMock.expect(building.getPreviousSuccessfulBuild()).andAnswer(counting(loaded, "getPreviousSuccessfulBuild", olderBuild)).anyTimes();
+		EasyMock.expect(building.getCulprits()).andAnswer(counting(loaded, "getCulprits", new HashSet<User>())).anyTimes();
+		EasyMock.expect(building.getChangeSet()).andReturn(ChangeLogSet.createEmpty(building)).anyTimes();
+		Job buildingJob = lightweightJob(BallColor.RED_ANIME, building, olderBuild, loaded);
+
+		AbstractBuild finished = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(finished.getNumber()).andReturn(5).anyTimes();
+		EasyMock.expect(finished.getResult()).andReturn(Result.UNSTABLE).anyTimes();
+		EasyMock.expect(finished.getPreviousBuild()).andAnswer(counting(loaded, "getPreviousBuild", olderBuild)).anyTimes();
+		EasyMock.expect(finished.getCulprits()).andAnswer(counting(loaded, "getCulprits", new HashSet<User>())).anyTimes();
+		EasyMock.expect(finished.getActions(TestResultAction.class)).andReturn(new ArrayList<TestResultAction>()).anyTimes();
+		EasyMock.expect(finished.getActions(ClaimBuildAction.class)).andReturn(new ArrayList<ClaimBuildAction>()).anyTimes();
+		Job finishedJob = lightweightJob(BallColor.YELLOW, finished, olderBuild, loaded);
+		PowerMock.replayAll();
+
+		XFPanelEntry buildingEntry = new XFPanelEntry(view, buildingJob);
+		buildingEntry.init();
+		XFPanelEntry finishedEntry = new XFPanelEntry(view, finishedJob);
+		finishedEntry.init();
+		for (XFPanelEntry entry : Arrays.asList(buildingEntry, finishedEntry)) {
+			entry.getCulprits();
+			entry.getTrend();
+			entry.getTestCount();
+			entry.getDiff();
+			entry.getNumberOfTests();
+			entry.getNumberOfFailedBuilds();
+			entry.isClaimed();
+			entry.getClaimInfoByTestCases();
+			entry.getClaimedTestCases();
+			entry.getBuildsInProgress();
+			entry.getDisplayKey();
+		}
+
+		assertEquals("no build but the last one loaded: " + loaded, 0, loaded.size());
+		assertEquals(Arrays.asList(building), buildingEntry.getBuildsInProgress());
+		assertEquals(" -", finishedEntry.getCulprits());
+		assertNull(buildingEntry.getCompletionTimestamp());
+		assertTrue(finishedEntry.isBuildUnstable());
+		// the building job's previous build failed, as its icon tells
+		assertTrue(buildingEntry.getSortKey() > finishedEntry.getSortKey());
+		assertEquals(XFPanelEntry.sortKey(XFPanelEntry.severity(Result.FAILURE), true, true, 0), buildingEntry.getSortKey());
+	}
+
+	@Test
+	public void testLightweightIndexStartsFromCompletedBuild() throws Exception {
+		XFPanelView view = mockView(false);
+		view.BlameState = XFPanelView.Blame.EVERYINVOLVED;
+		EasyMock.expect(view.getLightweight()).andReturn(true).anyTimes();
+
+		// any call on an older build fails the test
+		AbstractBuild olderBuild = PowerMock.createMock(AbstractBuild.class);
+		Map<String, AtomicInteger> loaded = new HashMap<String, AtomicInteger>();
+
+		AbstractTestResultAction tests = PowerMock.createNiceMock(AbstractTestResultAction.class);
+		EasyMock.expect(tests.getTotalCount()).andReturn(10).anyTimes();
+		EasyMock.expect(tests.getFailCount()).andReturn(2).anyTimes();
+		AbstractBuild completed = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(completed.getNumber()).andReturn(7).anyTimes();
+		EasyMock.expect(completed.getResult()).andReturn(Result.UNSTABLE).anyTimes();
+		EasyMock.expect(completed.getAction(AbstractTestResultAction.class)).andReturn(tests).anyTimes();
+		EasyMock.expect(completed.getPreviousBuild()).andAnswer(counting(loaded, "getPreviousBuild", olderBuild)).anyTimes();
+		EasyMock.expect(completed.getActions(TestResultAction.class)).andReturn(new ArrayList<TestResultAction>()).anyTimes();
+		EasyMock.expect(completed.getActions(ClaimBuildAction.class)).andReturn(new ArrayList<ClaimBuildAction>()).anyTimes();
+		Job job = lightweightJob(BallColor.YELLOW, completed, olderBuild, loaded);
+		EasyMock.expect(completed.getParent()).andReturn(job).anyTimes();
+
+		AbstractBuild failed = PowerMock.createNiceMock(AbstractBuild.class);
+		EasyMock.expect(failed.getNumber()).andReturn(8).anyTimes();
+		EasyMock.expect(failed.getResult()).andReturn(Result.FAILURE).anyTimes();
+		EasyMock.expect(failed.getPreviousBuild()).andAnswer(counting(loaded, "getPreviousBuild", olderBuild)).anyTimes();
+		EasyMock.expect(failed.getParent()).andReturn(job).anyTimes();
+		PowerMock.replayAll();
+
+		// the index is created empty, then the build completes
+		XFPanelEntry before = new XFPanelEntry(view, job);
+		before.init();
+		assertEquals(0, before.getTestCount());
+		XFPanelJobIndex.IndexRunListener listener = new XFPanelJobIndex.IndexRunListener();
+		listener.onCompleted(completed, null);
+
+		XFPanelEntry after = new XFPanelEntry(view, job);
+		after.init();
+		assertEquals(10, after.getTestCount());
+		assertEquals(2, after.getFailCount());
+		assertEquals(1, after.getTrend().getBuildCount());
+		assertEquals(0, after.getTrend().getRedStreak());
+
+		// invalidated, then the next build completes
+		listener.onDeleted(completed);
+		assertEquals(-1, XFPanelJobIndex.peek(job).getLastNumber());
+		listener.onCompleted(failed, null);
+		XFPanelJobIndex index = XFPanelJobIndex.peek(job);
+		assertEquals(8, index.getLastNumber());
+		assertNull(index.getTestCounts(0));
+		assertEquals(1, index.getTrend().getBuildCount());
+		assertEquals("\u22651", index.getTrend().getRedStreakLabel());
+
+		assertEquals("no build but the completed ones loaded: " + loaded, 0, loaded.size());
+	}
+
+	/**
+	 * @return a job whose last build is the given one, counting any other build it hands out in the given map
+	 */
+	private static Job lightweightJob(BallColor color, AbstractBuild last, AbstractBuild older, Map<String, AtomicInteger> loaded) {
+		Job job = mockJob("lightweight-" + color);
+		EasyMock.expect(job.getIconColor()).andReturn(color).anyTimes();
+		EasyMock.expect(job.getLastBuild()).andReturn(last).anyTimes();
+		EasyMock.expect(job.getLastCompletedBuild()).andAnswer(counting(loaded, "getLastCompletedBuild", older)).anyTimes();
+		EasyMock.expect(job.getLastSuccessfulBuild()).andAnswer(counting(loaded, "getLastSuccessfulBuild", older)).anyTimes();
+		EasyMock.expect(job.getLastStableBuild()).andAnswer(counting(loaded, "getLastStableBuild", older)).anyTimes();
+		EasyMock.expect(job.getLastFailedBuild()).andAnswer(counting(loaded, "getLastFailedBuild", older)).anyTimes();
+		EasyMock.expect(job.getFirstBuild()).andAnswer(counting(loaded, "getFirstBuild", older)).anyTimes();
+		EasyMock.expect(job.getBuildByNumber(EasyMock.anyInt())).andAnswer(counting(loaded, "getBuildByNumber", older)).anyTimes();
+		return job;
+	}
+
+	private static Map<String, Integer> snapshot(Map<String, AtomicInteger> calls) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Map.Entry<String, AtomicInteger> call : calls.entrySet()) {
+			counts.put(call.getKey(), call.getValue().get());
+		}
+		return counts;
+	}
+
+	/**
+	 * Budget of the slow job test, generous for the jobs that aren't slow.
+	 */
+	private static final long SLOW_JOB_BUDGET = 2000;
+
+	@Test
+	public void testSlowJobServedStale() throws Exception {
+		XFPanelView view = mockView(false);
+
+		final AtomicBoolean slow = new AtomicBoolean();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Job fastJob = mockJob("fast");
+		EasyMock.expect(fastJob.getIconColor()).andReturn(BallColor.BLUE).anyTimes();
+		Job slowJob = mockJob("slow");
+		EasyMock.expect(slowJob.getIconColor()).andAnswer(new IAnswer<BallColor>() {
+			public BallColor answer() throws Throwable {
+				if (slow.get()) {
+					started.countDown();
+					release.await();
+				}
+				return BallColor.RED;
+			}
+		}).anyTimes();
+		PowerMock.replayAll();
+
+		XFPanelEntry previous = new XFPanelEntry(view, slowJob);
+		previous.init();
+		Map<Job<?, ?>, XFPanelEntry> previousEntries = new HashMap<Job<?, ?>, XFPanelEntry>();
+		previousEntries.put(slowJob, previous);
+
+		slow.set(true);
+		try {
+			List<Job<?, ?>> jobs = new ArrayList<Job<?, ?>>();
+			jobs.add(slowJob);
+			jobs.add(fastJob);
+			// only the slow job, which never finishes before it is released, uses up its budget
+			XFPanelEntryLoader loader = new XFPanelEntryLoader(view);
+			List<XFPanelEntry> entries = loader.load(jobs, SLOW_JOB_BUDGET, previousEntries);
+			assertTrue(started.await(0, TimeUnit.MILLISECONDS));
+
+			assertEquals(2, entries.size());
+			assertSame(slowJob, entries.get(0).getJob());
+			assertTrue(entries.get(0).isStale());
+			assertEquals(previous.getSortKey(), entries.get(0).getSortKey());
+			assertFalse(previous.getStateKey().equals(entries.get(0).getStateKey()));
+			assertSame(fastJob, entries.get(1).getJob());
+			assertFalse(entries.get(1).isStale());
+
+			XFPanelSnapshot snapshot = new XFPanelSnapshot(XFPanelChangeTracker.getGeneration(),
+					XFPanelQueueIndex.get().getVersion(), jobs, entries);
+			// stale entries don't make the snapshot invalid, they are swapped in once computed
+			assertTrue(snapshot.isStale());
+			assertTrue(snapshot.isCurrent());
+
+			// without an earlier entry, the budget still applies
+			List<Job<?, ?>> slowOnly = Collections.<Job<?, ?>>singletonList(slowJob);
+			XFPanelEntry pending = new XFPanelEntryLoader(view).load(slowOnly, 100,
+					new HashMap<Job<?, ?>, XFPanelEntry>()).get(0);
+			assertTrue(pending.isStale());
+			assertEquals("other", pending.getStatusClass());
+			assertEquals(0, pending.getTestCount());
+
+			// the computation that took too long is collected once it is done
+			assertFalse(loader.hasLate());
+			release.countDown();
+			long deadline = System.currentTimeMillis() + SLOW_JOB_BUDGET;
+			while (!loader.hasLate() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(loader.hasLate());
+			Map<Job<?, ?>, XFPanelEntry> late = loader.collectLate();
+			assertEquals(1, late.size());
+			assertFalse(late.get(slowJob).isStale());
+			assertEquals(previous.getStateKey(), late.get(slowJob).getStateKey());
+			assertFalse(loader.hasLate());
+			assertTrue(loader.collectLate().isEmpty());
+
+			// and isn't running any more, so the next panel computes it again
+			List<XFPanelEntry> next = loader.load(slowOnly, SLOW_JOB_BUDGET, previousEntries);
+			assertFalse(next.get(0).isStale());
+			assertEquals(previous.getStateKey(), next.get(0).getStateKey());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testSnapshotFilteredPerUser() throws Exception {
+		XFPanelView view = mockView(false);
+		Job red = mockJob("red");
+		EasyMock.expect(red.getIconColor()).andReturn(BallColor.RED).anyTimes();
+		Job blue = mockJob("blue");
+		EasyMock.expect(blue.getIconColor()).andReturn(BallColor.BLUE).anyTimes();
+		PowerMock.replayAll();
+
+		List<Job<?, ?>> jobs = new ArrayList<Job<?, ?>>();
+		List<XFPanelEntry> entries = new ArrayList<XFPanelEntry>();
+		for (Job job : new Job[] { red, blue }) {
+			XFPanelEntry entry = new XFPanelEntry(view, job);
+			entry.init();
+			jobs.add(job);
+			entries.add(entry);
+		}
+		XFPanelSnapshot all = new XFPanelSnapshot(XFPanelChangeTracker.getGeneration(),
+				XFPanelQueueIndex.get().getVersion(), jobs, entries);
+		assertTrue(all.isCurrent());
+
+		// a user who sees every job gets the shared snapshot itself
+		assertSame(all, all.filter(new ArrayList<Job<?, ?>>(jobs)));
+		XFPanelSnapshot blueOnly = all.filter(Collections.<Job<?, ?>>singletonList(blue));
+		assertEquals(1, blueOnly.getEntries().size());
+		assertSame(entries.get(1), blueOnly.getEntries().get(0));
+		assertFalse(all.getFingerprint().equals(blueOnly.getFingerprint()));
+		assertEquals(all.getGeneration(), blueOnly.getGeneration());
+
+		// users who see different jobs share the versions of the panel
+		XFPanelHistory history = new XFPanelHistory();
+		XFPanelDelta full = history.diff(-1, entries);
+		XFPanelDelta blueDelta = full.filter(Collections.singleton("blue"));
+		assertEquals(Arrays.asList("blue"), blueDelta.getOrder());
+		assertEquals(1, blueDelta.getChanged().size());
+		assertSame(full, full.filter(new HashSet<String>(Arrays.asList("red", "blue"))));
+
+		// blue left the panel, which a user who only sees red isn't told about
+		XFPanelDelta redDelta = history.diff(full.getVersion(), entries.subList(0, 1))
+				.filter(Collections.singleton("red"));
+		assertFalse(redDelta.getFull());
+		assertEquals(Arrays.asList("red"), redDelta.getOrder());
+		assertTrue(redDelta.getChanged().isEmpty());
+		assertTrue(redDelta.getRemoved().isEmpty());
+	}
+
+	@Test
+	public void testSortKeyOrder() {
+		long failed = XFPanelEntry.sortKey(XFPanelEntry.severity(Result.FAILURE), false, true, 1000);
+		long failedEarlier = XFPanelEntry.sortKey(XFPanelEntry.severity(Result.FAILURE), false, true, 500);
+		long failedBuilding = XFPanelEntry.sortKey(XFPanelEntry.severity(Result.FAILURE), true, true, 0);
+		long unstable = XFPanelEntry.sortKey(XFPanelEntry.severity(Result.UNSTABLE), true, true, Long.MAX_VALUE);
+		long aborted = XFPanelEntry.sortKey(XFPanelEntry.severity(Result.ABORTED), false, true, 0);
+		long neverBuilt = XFPanelEntry.sortKey(XFPanelEntry.severity(null), false, false, 0);
+		long success = XFPanelEntry.sortKey(XFPanelEntry.severity(Result.SUCCESS), true, true, System.currentTimeMillis());
+
+		assertTrue(failedBuilding > failed);
+		assertTrue(failed > failedEarlier);
+		assertTrue(failedEarlier > unstable);
+		assertTrue(unstable > aborted);
+		assertTrue(aborted > neverBuilt);
+		assertTrue(neverBuilt > success);
+		assertTrue(success > 0);
+	}
+
+	@Test
+	public void testExplainTakesTimings() {
+		XFPanelView view = mockView(false);
+		XFPanelMetrics metrics = new XFPanelMetrics();
+		EasyMock.expect(view.getMetrics()).andReturn(metrics).anyTimes();
+		PowerMock.replay(view);
+
+		XFPanelEntry entry = new XFPanelEntry(view, null);
+		XFPanelExplain explain = new XFPanelExplain(null);
+		entry.setExplain(explain);
+		long now = System.nanoTime();
+		entry.record(XFPanelMetrics.Phase.CULPRITS, now - 2000000L);
+		entry.record(XFPanelMetrics.Phase.CULPRITS, now - 3000000L);
+
+		assertTrue(explain.getMillis("culprits") >= 5);
+		assertEquals(0, explain.getMillis("claims"), 0);
+		assertEquals(0, metrics.toJson(60000, new XFPanelTileCache())
+				.getJSONObject("phases").getJSONObject("culprits").getInt("count"));
+
+		// builds are counted once, however often they are looked at
+		Run build = PowerMock.createNiceMock(FreeStyleBuild.class);
+		assertSame(build, entry.touch(build));
+		entry.touch(build);
+		entry.touch(null);
+		assertEquals(1, explain.getBuilds());
+	}
+
+	/**
+	 * @param claims whether the claim plugin is installed, and claimed test cases replace the test counts
+	 * @return a nice mock of a view with the flags every entry unboxes, not replayed yet
+	 */
+	private XFPanelView mockView(boolean claims) {
+		XFPanelView view = PowerMock.createNiceMock(XFPanelView.class);
+		EasyMock.expect(view.getColors()).andReturn(PowerMock.createNiceMock(XFPanelColors.class)).anyTimes();
+		EasyMock.expect(view.getShowDescription()).andReturn(Boolean.FALSE).anyTimes();
+		EasyMock.expect(view.getMaxAmmountOfResponsibles()).andReturn(1).anyTimes();
+		EasyMock.expect(view.getShowZeroTestCounts()).andReturn(Boolean.TRUE).anyTimes();
+		EasyMock.expect(view.getIsClaimPluginInstalled()).andReturn(claims).anyTimes();
+		EasyMock.expect(view.getReplaceNumberOfTestCases()).andReturn(claims).anyTimes();
+		if (claims) {
+			EasyMock.expect(this.jenkins.getPlugin("claim")).andReturn(new Plugin.DummyImpl()).anyTimes();
+		}
+		return view;
+	}
+
+	/**
+	 * @param name full and display name of the job
+	 * @return a nice mock of a job, not replayed yet
+	 */
+	private static Job mockJob(String name) {
+		Job job = PowerMock.createNiceMock(FreeStyleProject.class);
+		EasyMock.expect(job.getFullName()).andReturn(name).anyTimes();
+		EasyMock.expect(job.getDisplayName()).andReturn(name).anyTimes();
+		return job;
+	}
+
+	private static <T> IAnswer<T> counting(final Map<String, AtomicInteger> calls, final String name, final T value) {
+		return new IAnswer<T>() {
+			public T answer() {
+				AtomicInteger count = calls.get(name);
+				if (count == null) {
+					count = new AtomicInteger();
+					calls.put(name, count);
+				}
+				count.incrementAndGet();
+				return value;
+			}
+		};
+	}
+
 	private XFPanelEntry prepareData(int allFailed, boolean oneClaimed, boolean showClaimed) throws NoSuchFieldException,
 			IllegalAccessException {
 		Field field = Jenkins.class.getDeclaredField("theInstance");
@@ -0,0 +1,367 @@
+package maps.hudson.plugin.xfpanel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.util.PluginServletFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+/**
+ * Simulates wall boards polling <code>headlessdisplay</code> of a view while builds start and finish, and reports
+ * response latency, CPU time of the thread serving it and response size per request.
+ *
+ * Only runs when asked for, as it takes minutes:
+ * <pre>
+ * mvn test -Dtest=XFPanelLoadTest -Dxfpanel.loadtest=true [-Dxfpanel.loadtest.jobs=500] [-Dxfpanel.loadtest.browsers=50]
+ * </pre>
+ * Other settings: <code>xfpanel.loadtest.history</code> (builds per job before polling starts),
+ * <code>xfpanel.loadtest.refresh</code> (refresh interval of the view in seconds),
+ * <code>xfpanel.loadtest.duration</code> (seconds of polling) and <code>xfpanel.loadtest.buildsPerMinute</code>.
+ */
+public class XFPanelLoadTest {
+
+	private static final int JOBS = Integer.getInteger("xfpanel.loadtest.jobs", 100);
+	private static final int HISTORY = Integer.getInteger("xfpanel.loadtest.history", 3);
+	private static final int BROWSERS = Integer.getInteger("xfpanel.loadtest.browsers", 20);
+	private static final int REFRESH = Integer.getInteger("xfpanel.loadtest.refresh", 3);
+	private static final int DURATION = Integer.getInteger("xfpanel.loadtest.duration", 60);
+	private static final int BUILDS_PER_MINUTE = Integer.getInteger("xfpanel.loadtest.buildsPerMinute", 60);
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@BeforeClass
+	public static void enabled() {
+		Assume.assumeTrue(Boolean.getBoolean("xfpanel.loadtest"));
+	}
+
+	@Test
+	public void testPollingWallBoards() throws Exception {
+		j.jenkins.setNumExecutors(8);
+		List<FreeStyleProject> projects = createJobs();
+		XFPanelView view = new XFPanelView("wall", 4);
+		Field refresh = XFPanelView.class.getDeclaredField("refresh");
+		refresh.setAccessible(true);
+		refresh.set(view, REFRESH);
+		for (FreeStyleProject project : projects) {
+			view.add(project);
+		}
+		j.jenkins.addView(view);
+		URL url = new URL(j.getURL(), view.getUrl() + "headlessdisplay");
+		RequestCpu requestCpu = new RequestCpu("/" + view.getUrl() + "headlessdisplay");
+		PluginServletFilter.addFilter(requestCpu);
+
+		final long deadline = System.currentTimeMillis() + DURATION * 1000L;
+		BuildTrigger builds = new BuildTrigger(projects, deadline);
+		List<Browser> browsers = new ArrayList<Browser>();
+		for (int i = 0; i < BROWSERS; i++) {
+			browsers.add(new Browser(url, deadline, i));
+		}
+
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		long cpuBefore = processCpuTime(os);
+		builds.start();
+		for (Browser browser : browsers) {
+			browser.start();
+		}
+		for (Browser browser : browsers) {
+			browser.join();
+		}
+		builds.join();
+		long cpuAfter = processCpuTime(os);
+
+		List<Long> latencies = new ArrayList<Long>();
+		long bytes = 0;
+		long clientCpu = 0;
+		int ok = 0;
+		int notModified = 0;
+		int errors = 0;
+		for (Browser browser : browsers) {
+			latencies.addAll(browser.latencies);
+			bytes += browser.bytes;
+			clientCpu += browser.cpu;
+			ok += browser.ok;
+			notModified += browser.notModified;
+			errors += browser.errors;
+		}
+		int requests = latencies.size();
+		long[] sorted = new long[requests];
+		for (int i = 0; i < requests; i++) {
+			sorted[i] = latencies.get(i);
+		}
+		Arrays.sort(sorted);
+
+		System.out.println(String.format("XFPanelLoadTest: %d jobs, %d browsers polling every %ds for %ds, %d builds started",
+				JOBS, BROWSERS, REFRESH, DURATION, builds.started.get()));
+		System.out.println(String.format("  requests: %d (%d full, %d not modified, %d failed)",
+				requests, ok, notModified, errors));
+		if (requests > 0) {
+			System.out.println(String.format("  latency: p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+					percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), sorted[requests - 1] / 1e6));
+			System.out.println(String.format("  response: %d bytes on average, %d bytes per full response",
+					bytes / requests, ok > 0 ? bytes / ok : 0));
+			if (requestCpu.requests.get() > 0) {
+				System.out.println(String.format("  request CPU: %.2f ms per request, on the threads serving them",
+						requestCpu.nanos.get() / 1e6 / requestCpu.requests.get()));
+			}
+			if (cpuBefore >= 0) {
+				// everything but the browsers: request handling, background refreshes, the builds, and Jenkins itself
+				System.out.println(String.format("  process CPU: %.2f ms per request, including builds and Jenkins",
+						(cpuAfter - cpuBefore - clientCpu) / 1e6 / requests));
+			}
+		}
+		assertEquals(0, errors);
+		assertTrue(requests > 0);
+	}
+
+	/**
+	 * @return jobs with {@link #HISTORY} builds each, some of them failing or unstable
+	 */
+	private List<FreeStyleProject> createJobs() throws Exception {
+		List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+		for (int i = 0; i < JOBS; i++) {
+			FreeStyleProject project = j.createFreeStyleProject("job-" + i);
+			project.getBuildersList().add(new ResultBuilder(i));
+			projects.add(project);
+		}
+		for (int n = 0; n < HISTORY; n++) {
+			List<Future<?>> running = new ArrayList<Future<?>>();
+			for (FreeStyleProject project : projects) {
+				running.add(project.scheduleBuild2(0));
+			}
+			for (Future<?> build : running) {
+				build.get();
+			}
+		}
+		return projects;
+	}
+
+	private static double percentile(long[] sorted, int percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	/**
+	 * @return CPU time of this JVM in nanoseconds, or -1 if not available
+	 */
+	private static long processCpuTime(OperatingSystemMXBean os) {
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	/**
+	 * Sums the CPU time of the threads serving the panel, while they serve it.
+	 */
+	private static final class RequestCpu implements Filter {
+
+		private final String path;
+		private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicInteger requests = new AtomicInteger();
+
+		RequestCpu(String path) {
+			this.path = path;
+		}
+
+		public void init(FilterConfig config) {
+		}
+
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+				throws IOException, ServletException {
+			String uri = request instanceof HttpServletRequest ? ((HttpServletRequest) request).getRequestURI() : null;
+			if (uri == null || !uri.endsWith(this.path) || !this.threads.isCurrentThreadCpuTimeSupported()) {
+				chain.doFilter(request, response);
+				return;
+			}
+			long start = this.threads.getCurrentThreadCpuTime();
+			try {
+				chain.doFilter(request, response);
+			} finally {
+				this.nanos.addAndGet(this.threads.getCurrentThreadCpuTime() - start);
+				this.requests.incrementAndGet();
+			}
+		}
+
+		public void destroy() {
+		}
+	}
+
+	/**
+	 * Fails some jobs and makes others unstable; builds after the initial history take a few seconds.
+	 */
+	private static final class ResultBuilder extends TestBuilder {
+
+		private final int job;
+
+		ResultBuilder(int job) {
+			this.job = job;
+		}
+
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+				throws InterruptedException, IOException {
+			if (build.getNumber() > HISTORY) {
+				Thread.sleep(2000 + (this.job * 997L + build.getNumber() * 331L) % 4000);
+			}
+			int outcome = (this.job + build.getNumber()) % 10;
+			if (outcome == 0) {
+				build.setResult(Result.FAILURE);
+			} else if (outcome == 1) {
+				build.setResult(Result.UNSTABLE);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Starts builds of random jobs at {@link #BUILDS_PER_MINUTE}.
+	 */
+	private static final class BuildTrigger extends Thread {
+
+		private final List<FreeStyleProject> projects;
+		private final long deadline;
+		private final Random random = new Random(42);
+		final AtomicInteger started = new AtomicInteger();
+
+		BuildTrigger(List<FreeStyleProject> projects, long deadline) {
+			super("XFPanelLoadTest builds");
+			this.projects = projects;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			long interval = 60000L / Math.max(1, BUILDS_PER_MINUTE);
+			try {
+				while (System.currentTimeMillis() < this.deadline) {
+					FreeStyleProject project = this.projects.get(this.random.nextInt(this.projects.size()));
+					if (!project.isBuilding() && !project.isInQueue()) {
+						project.scheduleBuild2(0);
+						this.started.incrementAndGet();
+					}
+					Thread.sleep(interval);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Polls the panel like <code>xfp.js</code> does, sending the ETag of the last panel it got.
+	 */
+	private static final class Browser extends Thread {
+
+		private final URL url;
+		private final long deadline;
+		private final long offset;
+		final List<Long> latencies = new ArrayList<Long>();
+		long bytes;
+		long cpu;
+		int ok;
+		int notModified;
+		int errors;
+
+		Browser(URL url, long deadline, int index) {
+			super("XFPanelLoadTest browser " + index);
+			this.url = url;
+			this.deadline = deadline;
+			// screens aren't switched on at the same moment
+			this.offset = (index * 7919L) % (REFRESH * 1000L);
+		}
+
+		@Override
+		public void run() {
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			long cpuStart = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+			String etag = null;
+			try {
+				Thread.sleep(this.offset);
+				while (System.currentTimeMillis() < this.deadline) {
+					long start = System.nanoTime();
+					etag = poll(etag);
+					long elapsed = System.nanoTime() - start;
+					this.latencies.add(elapsed);
+					Thread.sleep(Math.max(0, REFRESH * 1000L - elapsed / 1000000));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (threads.isCurrentThreadCpuTimeSupported()) {
+				this.cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+			}
+		}
+
+		/**
+		 * @return the ETag to send with the next request
+		 */
+		private String poll(String etag) {
+			try {
+				HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+				if (etag != null) {
+					connection.setRequestProperty("If-None-Match", etag);
+				}
+				int status = connection.getResponseCode();
+				if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					this.notModified++;
+					return etag;
+				}
+				if (status != HttpURLConnection.HTTP_OK) {
+					this.errors++;
+					return null;
+				}
+				InputStream in = connection.getInputStream();
+				try {
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) >= 0) {
+						this.bytes += read;
+					}
+				} finally {
+					in.close();
+				}
+				this.ok++;
+				return connection.getHeaderField("ETag");
+			} catch (IOException e) {
+				this.errors++;
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package maps.hudson.plugin.xfpanel;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.model.FreeStyleProject;
+
+import java.util.Arrays;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * Checks the size of the panel on the markup {@link XFPanelRenderer} actually writes: tiles are styled by the
+ * classes of {@link XFPanelStylesheet} only, so the stylesheet is sent once per view and its size is spread over
+ * the tiles. Response sizes of a running Jenkins are reported by <code>XFPanelLoadTest</code>.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest( {XFPanelEntry.class, XFPanelTrend.class })
+public class XFPanelPayloadTest {
+
+	private static final int JOBS = 500;
+
+	@Test
+	public void testStylesheetSharedByTiles() throws Exception {
+		XFPanelView view = PowerMock.createNiceMock(XFPanelView.class);
+		EasyMock.expect(view.getNumColumns()).andReturn(2).anyTimes();
+		EasyMock.expect(view.getGuiHeight()).andReturn(100).anyTimes();
+		EasyMock.expect(view.getGuiJobFont()).andReturn(80).anyTimes();
+		EasyMock.expect(view.getGuiFailFont()).andReturn(100).anyTimes();
+		EasyMock.expect(view.getGuiInfoFont()).andReturn(30).anyTimes();
+		EasyMock.expect(view.getGuiBuildFont()).andReturn(30).anyTimes();
+		EasyMock.expect(view.getGuiClaimFont()).andReturn(20).anyTimes();
+		EasyMock.expect(view.getShowClaimInfo()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowWarningIcon()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowBrokenBuildCount()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowTrend()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowTimeStamp()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowZeroTestCounts()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getReplaceResponsibles()).andReturn(false).anyTimes();
+		EasyMock.expect(view.getResponsiblesTopic()).andReturn("Responsible(s): ").anyTimes();
+		EasyMock.expect(view.getLastBuildTimePreFix()).andReturn("last successful: ").anyTimes();
+
+		FreeStyleProject project = PowerMock.createNiceMock(FreeStyleProject.class);
+		EasyMock.expect(project.getFullName()).andReturn("alpha").anyTimes();
+		XFPanelEntry job = PowerMock.createNiceMock(XFPanelEntry.class);
+		EasyMock.expect(job.getJob()).andReturn(project).anyTimes();
+		EasyMock.expect(job.getName()).andReturn("alpha").anyTimes();
+		EasyMock.expect(job.getUrl()).andReturn("job/alpha/").anyTimes();
+		EasyMock.expect(job.getStatusClass()).andReturn("broken").anyTimes();
+		EasyMock.expect(job.getFailCount()).andReturn(2).anyTimes();
+		EasyMock.expect(job.getBroken()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getBuilding()).andReturn(false).anyTimes();
+		EasyMock.expect(job.getShowResponsibles()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getCulprits()).andReturn("carol").anyTimes();
+		EasyMock.expect(job.getCompletionTimestampString()).andReturn("5 min").anyTimes();
+		EasyMock.expect(job.getNumberOfFailedBuilds()).andReturn(3).anyTimes();
+		EasyMock.expect(job.getTrendClasses()).andReturn(Arrays.asList("xfp-ok", "xfp-broken")).anyTimes();
+		XFPanelTrend trend = PowerMock.createNiceMock(XFPanelTrend.class);
+		EasyMock.expect(trend.getBuildCount()).andReturn(2).anyTimes();
+		EasyMock.expect(trend.getFailureRate()).andReturn("50%").anyTimes();
+		EasyMock.expect(trend.getRedStreak()).andReturn(1).anyTimes();
+		EasyMock.expect(trend.getRedStreakLabel()).andReturn("1").anyTimes();
+		EasyMock.expect(trend.getTimeSinceFirstFailure()).andReturn("1 hr").anyTimes();
+		EasyMock.expect(trend.getMeanTimeToRecovery()).andReturn("2 hr").anyTimes();
+		EasyMock.expect(job.getTrend()).andReturn(trend).anyTimes();
+		PowerMock.replayAll();
+
+		String tile = new XFPanelRenderer(view, "/jenkins").render(job);
+		String style = "<style type=\"text/css\" class=\"xfp-style\">" + XFPanelStylesheet.generate(view) + "</style>";
+		assertFalse(tile, tile.contains("style=\""));
+
+		long tileBytes = (long) tile.getBytes("UTF-8").length * JOBS;
+		long styleBytes = style.getBytes("UTF-8").length;
+		// the stylesheet adds less than 5% to the tiles of a large view
+		assertTrue(styleBytes + " bytes of style for " + tileBytes + " bytes of tiles", styleBytes * 20 < tileBytes);
+	}
+}
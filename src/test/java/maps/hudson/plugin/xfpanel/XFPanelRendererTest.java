@@ -0,0 +1,187 @@
+package maps.hudson.plugin.xfpanel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.model.Executor;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.json.JSONObject;
+
+import org.apache.commons.io.IOUtils;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+/**
+ * Compares the markup of {@link XFPanelRenderer} with golden files, for view settings and states that are hard to
+ * set up in a running Jenkins. {@link XFPanelTemplateTest} checks the renderer against <code>job.jelly</code>.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest( {XFPanelEntry.class, XFPanelTrend.class })
+public class XFPanelRendererTest {
+
+	@Test
+	public void testBrokenClaimedJob() throws Exception {
+		XFPanelView view = prepareView();
+		EasyMock.expect(view.getShowWarningIcon()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowBrokenBuildCount()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowTrend()).andReturn(true).anyTimes();
+
+		XFPanelEntry job = prepareEntry("alpha", "alpha", "job/alpha/", "broken");
+		EasyMock.expect(job.getFailCount()).andReturn(2).anyTimes();
+		EasyMock.expect(job.getBroken()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getBuilding()).andReturn(false).anyTimes();
+		EasyMock.expect(job.isClaimed()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getClaimInfo()).andReturn("bob").anyTimes();
+		EasyMock.expect(job.getShowResponsibles()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getCulprits()).andReturn("carol").anyTimes();
+		EasyMock.expect(job.getCompletionTimestampString()).andReturn("5 min").anyTimes();
+		EasyMock.expect(job.getNumberOfFailedBuilds()).andReturn(3).anyTimes();
+		EasyMock.expect(job.getTrendClasses()).andReturn(Arrays.asList("xfp-ok", "xfp-broken")).anyTimes();
+
+		XFPanelTrend trend = PowerMock.createNiceMock(XFPanelTrend.class);
+		EasyMock.expect(trend.getBuildCount()).andReturn(2).anyTimes();
+		EasyMock.expect(trend.getFailureRate()).andReturn("50%").anyTimes();
+		EasyMock.expect(trend.getRedStreak()).andReturn(1).anyTimes();
+		EasyMock.expect(trend.getRedStreakLabel()).andReturn("1").anyTimes();
+		EasyMock.expect(trend.getTimeSinceFirstFailure()).andReturn("1 hr").anyTimes();
+		EasyMock.expect(trend.getMeanTimeToRecovery()).andReturn("2 hr").anyTimes();
+		EasyMock.expect(job.getTrend()).andReturn(trend).anyTimes();
+		PowerMock.replayAll();
+
+		String html = new XFPanelRenderer(view, "/jenkins").render(job);
+		assertEquals(golden("tile-broken.html"), normalize(html));
+	}
+
+	@Test
+	public void testStaleBuildingJob() throws Exception {
+		XFPanelView view = prepareView();
+		EasyMock.expect(view.getShowBrokenBuildCount()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getIsClaimPluginInstalled()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getReplaceNumberOfTestCases()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowClaimInfoInUnstable()).andReturn(true).anyTimes();
+
+		XFPanelEntry job = prepareEntry("team/beta", "beta", "job/team/job/beta/", "failed");
+		EasyMock.expect(job.getFailCount()).andReturn(1).anyTimes();
+		EasyMock.expect(job.getBroken()).andReturn(false).anyTimes();
+		EasyMock.expect(job.getBuilding()).andReturn(true).anyTimes();
+		EasyMock.expect(job.isStale()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getNumberOfTests()).andReturn("1").anyTimes();
+		EasyMock.expect(job.isBuildUnstable()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getClaimInfoByTestCases()).andReturn("1 of 2 claimed").anyTimes();
+
+		Executor executor = PowerMock.createNiceMock(Executor.class);
+		EasyMock.expect(executor.getProgress()).andReturn(40).anyTimes();
+		FreeStyleBuild build = PowerMock.createNiceMock(FreeStyleBuild.class);
+		EasyMock.expect(build.getDisplayName()).andReturn("#7").anyTimes();
+		EasyMock.expect(build.getExecutor()).andReturn(executor).anyTimes();
+		List<Run<?, ?>> builds = new ArrayList<Run<?, ?>>();
+		builds.add(build);
+		EasyMock.expect(job.getBuildsInProgress()).andReturn(builds).anyTimes();
+		PowerMock.replayAll();
+
+		String html = new XFPanelRenderer(view, "/jenkins").render(job);
+		assertEquals(golden("tile-building.html"), normalize(html));
+	}
+
+	@Test
+	public void testEntryJson() throws Exception {
+		XFPanelView view = prepareView();
+		XFPanelEntry job = prepareEntry("team/beta", "beta", "job/team/job/beta/", "failed");
+		EasyMock.expect(job.getBroken()).andReturn(false).anyTimes();
+		EasyMock.expect(job.getBuilding()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getQueued()).andReturn(true).anyTimes();
+		EasyMock.expect(job.getQueueNumber()).andReturn(2).anyTimes();
+		EasyMock.expect(job.getTestCount()).andReturn(10).anyTimes();
+		EasyMock.expect(job.getFailCount()).andReturn(1).anyTimes();
+		EasyMock.expect(job.getDiff()).andReturn("+1").anyTimes();
+		EasyMock.expect(job.getDiffColor()).andReturn("#FF0000").anyTimes();
+		EasyMock.expect(job.getCulprits()).andReturn("carol").anyTimes();
+
+		Executor executor = PowerMock.createNiceMock(Executor.class);
+		EasyMock.expect(executor.getProgress()).andReturn(40).anyTimes();
+		FreeStyleBuild build = PowerMock.createNiceMock(FreeStyleBuild.class);
+		EasyMock.expect(build.getDisplayName()).andReturn("#7").anyTimes();
+		EasyMock.expect(build.getExecutor()).andReturn(executor).anyTimes();
+		List<Run<?, ?>> builds = new ArrayList<Run<?, ?>>();
+		builds.add(build);
+		EasyMock.expect(job.getBuildsInProgress()).andReturn(builds).anyTimes();
+		PowerMock.replayAll();
+
+		JSONObject json = XFPanelJson.entry(view, job);
+		assertEquals("beta", json.getString("name"));
+		assertEquals("team/beta", json.getString("fullName"));
+		assertEquals("failed", json.getString("status"));
+		assertTrue(json.getBoolean("building"));
+		assertFalse(json.has("broken"));
+		assertEquals(10, json.getInt("testCount"));
+		assertEquals(1, json.getInt("failCount"));
+		assertEquals("+1", json.getString("diff"));
+		assertEquals(2, json.getInt("queueNumber"));
+		// culprits are only shown for broken builds
+		assertFalse(json.has("culprits"));
+		assertFalse(json.has("trend"));
+		assertEquals("#7", json.getJSONArray("builds").getJSONObject(0).getString("name"));
+		assertEquals(40, json.getJSONArray("builds").getJSONObject(0).getInt("progress"));
+	}
+
+	private XFPanelView prepareView() {
+		XFPanelView view = PowerMock.createNiceMock(XFPanelView.class);
+		EasyMock.expect(view.getGuiHeight()).andReturn(100).anyTimes();
+		EasyMock.expect(view.getGuiJobFont()).andReturn(80).anyTimes();
+		EasyMock.expect(view.getGuiFailFont()).andReturn(100).anyTimes();
+		EasyMock.expect(view.getGuiInfoFont()).andReturn(30).anyTimes();
+		EasyMock.expect(view.getGuiBuildFont()).andReturn(30).anyTimes();
+		EasyMock.expect(view.getGuiClaimFont()).andReturn(20).anyTimes();
+		EasyMock.expect(view.getShowClaimInfo()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getReplaceResponsibles()).andReturn(false).anyTimes();
+		EasyMock.expect(view.getShowTimeStamp()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getShowZeroTestCounts()).andReturn(true).anyTimes();
+		EasyMock.expect(view.getResponsiblesTopic()).andReturn("Responsible(s): ").anyTimes();
+		EasyMock.expect(view.getLastBuildTimePreFix()).andReturn("last successful: ").anyTimes();
+		return view;
+	}
+
+	private XFPanelEntry prepareEntry(String fullName, String name, String url, String statusClass) {
+		FreeStyleProject project = PowerMock.createNiceMock(FreeStyleProject.class);
+		EasyMock.expect(project.getFullName()).andReturn(fullName).anyTimes();
+		XFPanelEntry job = PowerMock.createNiceMock(XFPanelEntry.class);
+		EasyMock.expect(job.getJob()).andReturn(project).anyTimes();
+		EasyMock.expect(job.getName()).andReturn(name).anyTimes();
+		EasyMock.expect(job.getUrl()).andReturn(url).anyTimes();
+		EasyMock.expect(job.getStatusClass()).andReturn(statusClass).anyTimes();
+		return job;
+	}
+
+	private String golden(String name) throws Exception {
+		InputStream in = getClass().getResourceAsStream(name);
+		try {
+			return normalize(IOUtils.toString(in, "UTF-8"));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Drops comments, collapses whitespace and removes it next to tags, so that indentation and line breaks of
+	 * the templates don't matter.
+	 */
+	private static String normalize(String html) {
+		return html.replaceAll("(?s)<!--.*?-->", "")
+				.replaceAll("\\s+", " ")
+				.replaceAll(" ?(<|>) ?", "$1")
+				.replaceAll(" ?/>", "/>")
+				.trim();
+	}
+}
@@ -0,0 +1,163 @@
+package maps.hudson.plugin.xfpanel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+/**
+ * Renders the same entries with <code>job.jelly</code> and with {@link XFPanelRenderer}, through
+ * <code>headlessdisplay</code> of a running Jenkins, and compares the tiles.
+ */
+public class XFPanelTemplateTest {
+
+	private static final Pattern TILE = Pattern.compile("(?s)<a href=\"[^\"]*\" class=\"xfp-tile\" job=\"([^\"]*)\">.*?</a>");
+	private static final Pattern TAG = Pattern.compile("<(/?)([a-zA-Z]+)([^>]*?)(/?)>");
+	private static final Pattern TIME_SPAN = Pattern.compile("\\d+(\\.\\d+)? (ms|sec|min|hr|day|mo|yr)s?");
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@Test
+	public void testFastRendererMatchesTemplates() throws Exception {
+		FreeStyleProject passing = j.createFreeStyleProject("passing");
+		j.assertBuildStatusSuccess(passing.scheduleBuild2(0));
+
+		FreeStyleProject unstable = j.createFreeStyleProject("unstable");
+		unstable.getBuildersList().add(new ResultBuilder(Result.UNSTABLE, null));
+		j.assertBuildStatus(Result.UNSTABLE, unstable.scheduleBuild2(0).get());
+
+		FreeStyleProject broken = j.createFreeStyleProject("broken");
+		// text from users is escaped by both
+		broken.setDisplayName("broken <b>&</b>");
+		broken.getBuildersList().add(new ResultBuilder(Result.FAILURE, null));
+		j.assertBuildStatus(Result.FAILURE, broken.scheduleBuild2(0).get());
+		j.assertBuildStatus(Result.FAILURE, broken.scheduleBuild2(0).get());
+
+		FreeStyleProject unbuilt = j.createFreeStyleProject("unbuilt");
+
+		// a first build has no estimate, so its progress doesn't move between the requests
+		FreeStyleProject building = j.createFreeStyleProject("building");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		building.getBuildersList().add(new ResultBuilder(Result.SUCCESS, new CountDownLatch[] { started, release }));
+		building.scheduleBuild2(0);
+		started.await();
+
+		XFPanelView view = new XFPanelView("wall", 2);
+		set(view, "showTrend", true);
+		set(view, "showBrokenBuildCount", true);
+		set(view, "showWarningIcon", true);
+		set(view, "replaceResponsibles", false);
+		for (FreeStyleProject project : new FreeStyleProject[] { passing, unstable, broken, unbuilt, building }) {
+			view.add(project);
+		}
+		j.jenkins.addView(view);
+
+		try {
+			Map<String, String> templates = tiles(view, false);
+			Map<String, String> fast = tiles(view, true);
+			assertEquals(5, templates.size());
+			assertEquals(templates.keySet(), fast.keySet());
+			for (Map.Entry<String, String> tile : templates.entrySet()) {
+				assertEquals(tile.getKey(), tile.getValue(), fast.get(tile.getKey()));
+			}
+			String brokenTile = fast.get("broken");
+			assertTrue(brokenTile, brokenTile.contains("BROKEN &lt;B&gt;&amp;&lt;/B&gt;"));
+			assertFalse(brokenTile, brokenTile.contains("<b>"));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	/**
+	 * @return the normalized tiles of the panel by full name of their job
+	 */
+	private Map<String, String> tiles(XFPanelView view, boolean fastRenderer) throws Exception {
+		set(view, "fastRenderer", fastRenderer);
+		set(view, "tileCache", null);
+		JenkinsRule.WebClient wc = j.createWebClient();
+		wc.setJavaScriptEnabled(false);
+		String html = wc.goTo(view.getUrl() + "headlessdisplay").getWebResponse().getContentAsString();
+
+		Map<String, String> tiles = new TreeMap<String, String>();
+		Matcher tile = TILE.matcher(html);
+		while (tile.find()) {
+			tiles.put(tile.group(1), normalize(tile.group()));
+		}
+		return tiles;
+	}
+
+	/**
+	 * Drops comments, collapses whitespace and removes it next to tags, writes tag names in lower case and empty
+	 * elements in full, and hides time spans, so that only the markup itself is compared.
+	 */
+	private static String normalize(String html) {
+		String collapsed = TIME_SPAN.matcher(html.replaceAll("(?s)<!--.*?-->", "")).replaceAll("#")
+				.replaceAll("\\s+", " ")
+				.replaceAll(" ?(<|>) ?", "$1")
+				.replaceAll(" ?/>", "/>")
+				.trim();
+		StringBuffer out = new StringBuffer(collapsed.length());
+		Matcher tag = TAG.matcher(collapsed);
+		while (tag.find()) {
+			String name = tag.group(2).toLowerCase(Locale.ENGLISH);
+			String replacement = "<" + tag.group(1) + name + tag.group(3) + ">";
+			if (tag.group(4).length() > 0 && !name.equals("br") && !name.equals("img")) {
+				replacement += "</" + name + ">";
+			}
+			tag.appendReplacement(out, Matcher.quoteReplacement(replacement));
+		}
+		tag.appendTail(out);
+		return out.toString();
+	}
+
+	private static void set(XFPanelView view, String name, Object value) throws Exception {
+		Field field = XFPanelView.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(view, value);
+	}
+
+	/**
+	 * Ends builds with the given result, optionally signalling their start and waiting to be released first.
+	 */
+	private static final class ResultBuilder extends TestBuilder {
+
+		private final Result result;
+		private final CountDownLatch[] latches;
+
+		ResultBuilder(Result result, CountDownLatch[] latches) {
+			this.result = result;
+			this.latches = latches;
+		}
+
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+				throws InterruptedException, IOException {
+			if (this.latches != null) {
+				this.latches[0].countDown();
+				this.latches[1].await();
+			}
+			build.setResult(this.result);
+			return true;
+		}
+	}
+}
@@ -1,13 +1,18 @@
 package maps.hudson.plugin.xfpanel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import hudson.DescriptorExtensionList;
 import hudson.model.TopLevelItem;
 import hudson.model.FreeStyleProject;
 import hudson.model.Hudson;
 import hudson.model.Job;
 import hudson.model.Node;
+import hudson.security.ACL;
+import hudson.security.Permission;
 import hudson.tasks.Publisher;
 import hudson.tasks.junit.TestResult;
 import hudson.views.ListViewColumn;
@@ -15,6 +20,7 @@ import hudson.views.ListViewColumn;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -22,8 +28,11 @@ import java.util.List;
 import java.util.Map;
 
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import maps.hudson.plugin.xfpanel.XFPanelView.XFPanelColors;
 
+import org.acegisecurity.Authentication;
 import org.easymock.ConstructorArgs;
 import org.easymock.EasyMock;
 import org.junit.Test;
@@ -76,6 +85,135 @@ public class XFPanelViewTest {
 		}
 	}
 
+	@Test
+	public void testGetPrioritySortedJobsMigratedPriority() throws Exception {
+	    PowerMock.resetAll();
+		List<FreeStyleProject> fsps = prepareJobs();
+		List<TopLevelItem> tli = Collections.<TopLevelItem>unmodifiableList(fsps);
+		Collection<Job<?, ?>> jobs = Collections.<Job<?, ?>>unmodifiableList(fsps);
+
+		XFPanelView xfPanelView = prepareData(tli, true, true);
+		Field fieldPriorityPerJob = XFPanelView.class.getDeclaredField("priorityPerJob");
+		fieldPriorityPerJob.setAccessible(true);
+		// a job that has left the view since
+		((Map<String, Integer>) fieldPriorityPerJob.get(xfPanelView)).put("gone", -1);
+		Job[] sortedJobsArray = xfPanelView.getPrioritySortedJobs(jobs, true).toArray(new Job[0]);
+		assertEquals(5, sortedJobsArray.length);
+		for (int i = 0; i < NR_OF_JOBS; i++) {
+			assertEquals("loop " + i, fsps.get(i).getName(), sortedJobsArray[PRIORITIES[i]].getName());
+		}
+		assertEquals(5, xfPanelView.getJobPriorities().size());
+		assertFalse(xfPanelView.getJobPriorities().containsKey("gone"));
+		assertNull(fieldPriorityPerJob.get(xfPanelView));
+		assertTrue(xfPanelView.getPriorityPerJob());
+	}
+
+	@Test
+	public void testSearchJobs() throws Exception {
+	    PowerMock.resetAll();
+		List<FreeStyleProject> fsps = prepareJobs();
+		List<TopLevelItem> all = Collections.<TopLevelItem>unmodifiableList(fsps);
+		// Jenkins lists its items sorted by name
+		List<TopLevelItem> sorted = new ArrayList<TopLevelItem>(all);
+		Collections.reverse(sorted);
+
+		XFPanelView xfPanelView = prepareData(all.subList(0, 2), false);
+		Field field = Jenkins.class.getDeclaredField("theInstance");
+		field.setAccessible(true);
+		Jenkins jenkins = PowerMock.createNiceMock(Hudson.class);
+		field.set(null, jenkins);
+		EasyMock.expect(jenkins.getItems()).andReturn(sorted).anyTimes();
+		PowerMock.replay(jenkins);
+		for (FreeStyleProject fsp : fsps) {
+			PowerMock.reset(fsp);
+			EasyMock.expect(fsp.getFullName()).andReturn(fsp.getName()).anyTimes();
+			EasyMock.expect(fsp.getACL()).andReturn(new ACL() {
+				@Override
+				public boolean hasPermission(Authentication a, Permission permission) {
+					return true;
+				}
+			}).anyTimes();
+			PowerMock.replay(fsp);
+		}
+
+		// the jobs of the view first, then the others
+		JSONObject page = xfPanelView.searchJobs("NAME", 1, 2);
+		assertEquals(1, page.getInt("offset"));
+		assertTrue(page.getBoolean("more"));
+		JSONArray jobs = page.getJSONArray("jobs");
+		assertEquals(2, jobs.size());
+		assertEquals("name4", jobs.getJSONObject(0).getString("name"));
+		assertTrue(jobs.getJSONObject(0).getBoolean("selected"));
+		assertEquals("name0", jobs.getJSONObject(1).getString("name"));
+		assertFalse(jobs.getJSONObject(1).getBoolean("selected"));
+
+		JSONObject single = xfPanelView.searchJobs(" name0 ", 0, 50);
+		assertFalse(single.getBoolean("more"));
+		assertEquals(1, single.getJSONArray("jobs").size());
+		assertEquals("name0", single.getJSONArray("jobs").getJSONObject(0).getString("name"));
+		assertFalse(single.getJSONArray("jobs").getJSONObject(0).getBoolean("selected"));
+
+		assertEquals(0, xfPanelView.searchJobs("ame", 0, 50).getJSONArray("jobs").size());
+	}
+
+	@Test
+	public void testTileCache() {
+		XFPanelTileCache cache = new XFPanelTileCache();
+		assertNull(cache.get("a"));
+		String tile = cache.put("a", "<div style=\"float: left\"></div><br/><span>1</span>");
+		assertEquals("<div style=\"float: left\"></div><br/><span>1</span>", tile);
+		assertEquals(tile, cache.get("a"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		for (int i = 0; i < XFPanelTileCache.SIZE; i++) {
+			cache.put("tile" + i, "<span></span>");
+		}
+		assertEquals(XFPanelTileCache.SIZE, cache.getSize());
+		assertNull(cache.get("a"));
+		assertEquals("<span></span>", cache.get("tile0"));
+	}
+
+	@Test
+	public void testMetrics() {
+		XFPanelMetrics metrics = new XFPanelMetrics();
+		long now = System.nanoTime();
+		for (int i = 1; i <= 100; i++) {
+			// durations of 1 to 100 ms
+			metrics.record(XFPanelMetrics.Phase.INIT, now - i * 1000000L);
+		}
+		metrics.snapshot(true);
+		metrics.snapshot(true);
+		metrics.snapshot(true);
+		metrics.snapshot(false);
+		metrics.poll("10.0.0.1 board");
+		metrics.poll("10.0.0.2 board");
+		metrics.poll("10.0.0.1 board");
+		assertTrue(metrics.openStream(1));
+		assertFalse(metrics.openStream(1));
+		// the limit is per view
+		XFPanelMetrics other = new XFPanelMetrics();
+		assertTrue(other.openStream(1));
+		other.closeStream();
+
+		XFPanelTileCache tiles = new XFPanelTileCache();
+		tiles.get("a");
+		JSONObject json = metrics.toJson(60000, tiles);
+		JSONObject init = json.getJSONObject("phases").getJSONObject("init");
+		assertEquals(100, init.getInt("count"));
+		assertTrue(init.getDouble("p50Millis") >= 50);
+		assertTrue(init.getDouble("p95Millis") >= 95);
+		assertTrue(init.getDouble("p99Millis") >= init.getDouble("p95Millis"));
+		assertTrue(init.getDouble("maxMillis") >= 100);
+		assertEquals(0, json.getJSONObject("phases").getJSONObject("render").getInt("count"));
+		assertEquals(0.75, json.getJSONObject("caches").getJSONObject("snapshots").getDouble("hitRate"), 0.001);
+		assertEquals(1, json.getJSONObject("caches").getJSONObject("tiles").getInt("misses"));
+		assertEquals(2, json.getJSONObject("pollers").getInt("active"));
+		assertEquals(1, json.getJSONObject("pollers").getInt("streams"));
+		metrics.closeStream();
+		assertEquals(0, metrics.toJson(60000, tiles).getJSONObject("pollers").getInt("allStreams"));
+	}
+
 	private List<FreeStyleProject> prepareJobs() throws Exception {
 /*	this works for new jenkins 1.598
  		Field field = Jenkins.class.getDeclaredField("theInstance");
@@ -101,6 +239,10 @@ public class XFPanelViewTest {
 	}
 
 	private XFPanelView prepareData(List<TopLevelItem> jobs, Boolean manualSort) throws Exception {
+		return prepareData(jobs, manualSort, false);
+	}
+
+	private XFPanelView prepareData(List<TopLevelItem> jobs, Boolean manualSort, boolean legacyPriorities) throws Exception {
 		Field field = Jenkins.class.getDeclaredField("theInstance");
         field.setAccessible(true);
         Jenkins jenkins = PowerMock.createNiceMock(Hudson.class);
@@ -131,13 +273,23 @@ public class XFPanelViewTest {
 		
 		if (manualSort) {
 			Map<String, Integer> priorityPerJob = new HashMap<String, Integer>();
+			String[] jobOrder = new String[jobs.size()];
 			int p = 0;
 			for (TopLevelItem tli: jobs) {
-				priorityPerJob.put(tli.getName(), PRIORITIES[p++]);
+				priorityPerJob.put(tli.getName(), PRIORITIES[p]);
+				jobOrder[PRIORITIES[p++]] = tli.getName();
+			}
+			Field fieldJobOrder = XFPanelView.class.getDeclaredField("jobOrder");
+			fieldJobOrder.setAccessible(true);
+			if (legacyPriorities) {
+				// as loaded from a configuration saved by an older version
+				Field fieldPriorityPerJob = XFPanelView.class.getDeclaredField("priorityPerJob");
+				fieldPriorityPerJob.setAccessible(true);
+				fieldPriorityPerJob.set(view, priorityPerJob);
+				fieldJobOrder.set(view, null);
+			} else {
+				fieldJobOrder.set(view, new ArrayList<String>(Arrays.asList(jobOrder)));
 			}
-			Field fieldPriorityPerJob = XFPanelView.class.getDeclaredField("priorityPerJob");
-			fieldPriorityPerJob.setAccessible(true);
-			fieldPriorityPerJob.set(view, priorityPerJob);
 		}
 		PowerMock.replayAll();
 		return view;